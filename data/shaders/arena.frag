@@ -0,0 +1,24 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+
+#ifdef GL_ES
+precision mediump float;
+#endif
+
+varying vec4 vertColor;
+
+void main() {
+  //the words that faded out keep their old positions, don't let them hide others
+  if (vertColor.a == 0.0) discard;
+  gl_FragColor = vertColor;
+}
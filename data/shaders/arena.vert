@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+
+//Draws the words of a page arena, which are already deformed and in place,
+//tilted around their origin and tinted for the shadows or for the fills.
+
+uniform mat4 projmodelviewMatrix;
+
+uniform vec2 tilt;						//cosine and sine of the rotation around the horizontal axis
+uniform vec4 tint;						//color of the words, at full opacity
+
+attribute vec4 inVertex;				//x in place, y of the word's origin, then y and z from the origin
+attribute float inOpacity;				//opacity of the vertex's word
+
+varying vec4 vertColor;
+
+void main() {
+  //tilt around the word's origin
+  vec4 v = vec4(inVertex.x, inVertex.y + inVertex.z*tilt.x - inVertex.w*tilt.y,
+                inVertex.z*tilt.y + inVertex.w*tilt.x, 1.0);
+  gl_Position = projmodelviewMatrix * v;
+  vertColor = vec4(tint.rgb, min(tint.a*inOpacity, 1.0));
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+//Deforms the rest pose of a word with the contraction and the ripples,
+//the same way as DeformKernel does on the CPU, then tilts it and moves
+//it in place the same way as Word.draw().
+
+#define MAX_RIPPLES 16		//must match WordShader.MAX_RIPPLES
+#define PI 3.14159265358979
+
+uniform mat4 projmodelviewMatrix;
+
+uniform float ascent;					//ascent of the current font
+uniform vec2 position;					//position of the word
+uniform vec3 contraction;				//contract factor (0 when not contracted), horizontal position to contract away from, period
+uniform vec3 ripples[MAX_RIPPLES];		//center and radius of each ripple
+uniform int rippleCount;				//number of ripples
+uniform vec3 wave;						//length of the ripple wave, number of cycles times 2*PI, amplitude
+uniform vec2 tilt;						//cosine and sine of the rotation around the horizontal axis
+uniform vec4 tint;						//color of the word
+
+attribute vec2 inVertex;				//rest position of the vertex, from the word's position
+
+varying vec4 vertColor;
+
+void main() {
+  vec3 vertex = vec3(inVertex, 0.0);
+  vec2 origin = vec2(position.x, position.y + ascent);
+
+  //contract vertically around the contraction point
+  float dx = abs(origin.x + vertex.x - contraction.y);
+  if (contraction.x != 0.0 && dx <= contraction.z)
+    vertex.y *= 1.0 - (cos(dx/contraction.z*PI)+1.0)/2.0 * contraction.x;
+
+  //push in depth with each ripple
+  vec2 point = origin + vertex.xy;
+  for(int i = 0; i < MAX_RIPPLES; i++) {
+    if (i >= rippleCount) break;
+    float dist = abs(distance(point, ripples[i].xy) - ripples[i].z);
+    if (dist < wave.x)
+      vertex.z += sin(dist/wave.x*wave.y) * wave.z * (1.0-dist/wave.x);
+  }
+
+  //tilt around the word's baseline and move it in place
+  gl_Position = projmodelviewMatrix * vec4(position.x + vertex.x,
+                                           position.y + vertex.y*tilt.x - vertex.z*tilt.y,
+                                           vertex.y*tilt.y + vertex.z*tilt.x, 1.0);
+  vertColor = tint;
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import processing.core.PApplet;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.PShader;
+
+/**
+ * Draws the lines in view of a page arena with two OpenGL calls.
+ * <p>The vertices of the arena are uploaded to a vertex buffer straight
+ * from the direct buffer each frame, and its triangles to an index buffer
+ * only when the arena is laid out again. Both are drawn twice with the
+ * shaders in data/shaders, without going through the renderer's shapes:
+ * once tilted and tinted for the shadows, then once for the fills, the
+ * tilt and the color being uniforms. All the shadows are drawn before all
+ * the fills, rather than each word's shadow right before its fill.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class ArenaRenderer {
+
+	static final String VERTEX_SHADER = "shaders/arena.vert";		//vertex shader, in the data folder
+	static final String FRAGMENT_SHADER = "shaders/arena.frag";		//fragment shader, in the data folder
+
+	PGraphicsOpenGL g;			//renderer
+	PShader shader;				//the shader
+	int[] buffers;				//vertex buffer and index buffer, 0 until the first draw
+	PageArena uploaded;			//arena whose indices are in the index buffer, null until the first draw
+	int uploadedLayout;			//layout of the arena whose indices are in the index buffer
+	float[] matrix;				//projection and modelview matrix, by columns
+
+	/**
+	 * Constructor.
+	 * @param parent parent Processing applet, drawing with OpenGL
+	 */
+	public ArenaRenderer(PApplet parent) {
+		this.g = (PGraphicsOpenGL)parent.g;
+		this.shader = new PShader(parent, VERTEX_SHADER, FRAGMENT_SHADER);
+		this.buffers = new int[2];
+		this.matrix = new float[16];
+	}
+
+	/**
+	 * Draw the words laid out in an arena, the shadows then the words.
+	 * @param arena the arena
+	 * @param fill fill color of the words, at full opacity
+	 */
+	public void draw(PageArena arena, int fill) {
+		if (arena.cornerCount == 0) return;
+		PGL pgl = g.pgl;
+
+		//draw what the renderer has pending first
+		g.flush();
+		if (buffers[0] == 0) pgl.glGenBuffers(2, buffers, 0);
+
+		shader.start();
+
+		//the renderer's current projection and modelview
+		g.projmodelview.get(matrix);
+		shader.set4x4MatUniform(shader.getUniformLocation("projmodelviewMatrix"), transpose(matrix));
+
+		//upload the vertices
+		int vertexLoc = shader.getAttribLocation("inVertex");
+		int opacityLoc = shader.getAttribLocation("inOpacity");
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, buffers[0]);
+		pgl.glBufferData(PGL.GL_ARRAY_BUFFER, arena.vertexCount*PageArena.STRIDE*4, arena.vertices, PGL.GL_STREAM_DRAW);
+		pgl.glEnableVertexAttribArray(vertexLoc);
+		pgl.glVertexAttribPointer(vertexLoc, 4, PGL.GL_FLOAT, false, PageArena.STRIDE*4, 0);
+		pgl.glEnableVertexAttribArray(opacityLoc);
+		pgl.glVertexAttribPointer(opacityLoc, 1, PGL.GL_FLOAT, false, PageArena.STRIDE*4, 4*4);
+
+		//and the triangles if the arena was laid out again
+		pgl.glBindBuffer(PGL.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+		if (uploaded != arena || uploadedLayout != arena.layoutCount) {
+			pgl.glBufferData(PGL.GL_ELEMENT_ARRAY_BUFFER, arena.cornerCount*4, arena.indices, PGL.GL_STATIC_DRAW);
+			uploaded = arena;
+			uploadedLayout = arena.layoutCount;
+		}
+
+		//draw the shadows
+		int tiltLoc = shader.getUniformLocation("tilt");
+		int tintLoc = shader.getUniformLocation("tint");
+		shader.set2FloatUniform(tiltLoc, Word.SHADOW_COS, Word.SHADOW_SIN);
+		shader.set4FloatUniform(tintLoc, 0, 0, 0, 20/255f);
+		pgl.glDrawElements(PGL.GL_TRIANGLES, arena.cornerCount, PGL.GL_UNSIGNED_INT, 0);
+
+		//then the words
+		shader.set2FloatUniform(tiltLoc, Word.FILL_COS, Word.FILL_SIN);
+		shader.set4FloatUniform(tintLoc, ((fill >> 16) & 0xff)/255f, ((fill >> 8) & 0xff)/255f, (fill & 0xff)/255f, ((fill >>> 24) & 0xff)/255f);
+		pgl.glDrawElements(PGL.GL_TRIANGLES, arena.cornerCount, PGL.GL_UNSIGNED_INT, 0);
+
+		pgl.glDisableVertexAttribArray(vertexLoc);
+		pgl.glDisableVertexAttribArray(opacityLoc);
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, 0);
+		pgl.glBindBuffer(PGL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		shader.stop();
+	}
+
+	/**
+	 * Transpose a 4x4 matrix in place, from rows to columns.
+	 * @param m the matrix
+	 * @return the matrix
+	 */
+	static float[] transpose(float[] m) {
+		for(int i = 0; i < 4; i++) {
+			for(int j = i+1; j < 4; j++) {
+				float t = m[i*4+j];
+				m[i*4+j] = m[j*4+i];
+				m[j*4+i] = t;
+			}
+		}
+		return m;
+	}
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+/**
+ * Measures how many vertices per second the words are deformed at.
+ * <p>Run it from the app's folder, optionally with the config file to use
+ * (config.properties by default). The words of the first text are laid out
+ * on a 1920x1080 screen with the text font and deformed with 0, 1, 4 and 16
+ * ripples, some of them contracted. Each run is warmed up first, and is made
+ * with the per vertex deformation the kernel replaced, kept here for
+ * comparison, then with the kernel using the exact functions, the tables of
+ * FastMath, its series on blocks of vertices, the tables with patches for
+ * the ripples that are almost flat over a word, and the grid of a
+ * RippleField. The blocks use the SIMD instructions the JVM finds, which can
+ * be limited to compare them (-XX:UseAVX=2 for AVX2, 0 for none). The
+ * tables are also measured with the lines split between the threads of a
+ * DeformPool, text.deform.threads of them (one per core by default).</p>
+ * <p>The exact kernel is checked to give exactly the same vertices as the
+ * per vertex deformation. For the others, the largest distance from the
+ * exact vertices is logged, with the number of words and ripples they culled
+ * or patched. The benchmark fails, with an exit code of 1, if the exact
+ * kernel moves any vertex or if another kernel moves one more than
+ * MAX_ERROR away, which would show on screen. The grid trades its error for
+ * speed with the size of its cells, so it is left out of the check.
+ * DeformCheck makes the same checks in a few seconds, without measuring.</p>
+ * <p>The config file is read here rather than by the app, whose class can't
+ * be loaded without a display, so the benchmark runs headless. Only the
+ * text font and files and the tessellation and deformation settings are
+ * read, with the app's defaults.</p>
+ * <pre>java -Djava.awt.headless=true net.obxlabs.rattlesnakes.DeformBenchmark</pre>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class DeformBenchmark {
+
+	static Logger logger = Logger.getLogger(DeformBenchmark.class);
+
+	static final int[] RIPPLE_COUNTS = { 0, 1, 4, 16 };	//number of ripples of each run
+	static final int WARMUP_MILLIS = 2000;				//time to warm up each run
+	static final int MEASURE_MILLIS = 3000;				//time to measure each run
+	static final float FONT_SIZE = 60;					//size of the text font
+	static final float ASCENT = 0.75f * FONT_SIZE;		//ascent of the text font
+	static final float FIELD_CELL_SIZE = 16;			//size of the cells of the ripple grid, unless set in the config
+	static final double MAX_ERROR = 1;					//largest distance from the exact vertices a kernel may move them (pixels)
+
+	static String textFont = "fonts" + File.separator + "Arial.ttf";	//text font, in the data folder
+	static String textFile = "body.txt";				//first text, in the data folder
+
+	/**
+	 * Run the benchmark.
+	 * @param args optional config file
+	 */
+	public static void main(String[] args) {
+		//configure logger
+		PropertyConfigurator.configure("logging.properties");
+
+		//load the same properties as the app
+		try {
+			loadConfig(args.length > 0 ? args[0] : "config.properties");
+		} catch (IOException e) {
+			logger.error("Could not read the config: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		List<Word> words;
+		try {
+			words = layoutWords();
+		} catch (Exception e) {
+			logger.error("Could not lay out the words: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		int vertices = 0;
+		for(Word w : words)
+			vertices += w.vertexCount();
+		logger.info("Deforming " + words.size() + " words, " + vertices + " vertices.");
+
+		//deform the lines like drawText() does, on the calling thread or on all the threads
+		Word[][] lines = lines(words);
+		DeformPool serial = new DeformPool(1);
+		int threads = DeformPool.THREADS > 0 ? DeformPool.THREADS : Runtime.getRuntime().availableProcessors();
+		DeformPool parallel = new DeformPool(threads);
+
+		int failures = 0;
+		for(int rippleCount : RIPPLE_COUNTS) {
+			List<Ripple> ripples = ripples(rippleCount);
+			Legacy legacy = new Legacy(words);
+			DeformKernel kernel = new DeformKernel(0, 0);
+			DeformKernel fastKernel = new DeformKernel(FastMath.ERROR, 0);
+			fastKernel.blocked = false;
+			DeformKernel blockedKernel = new DeformKernel(FastMath.ERROR, 0);
+			blockedKernel.blocked = true;
+			DeformKernel lodKernel = new DeformKernel(FastMath.ERROR, Word.RIPPLE_LOD);
+			DeformKernel fieldKernel = new DeformKernel(FastMath.ERROR, 0, new RippleField(0, 0, 1920, 1080,
+					RippleField.CELL_SIZE > 0 ? RippleField.CELL_SIZE : FIELD_CELL_SIZE));
+
+			//check that the exact kernel gives the same vertices
+			legacy.deform(ripples);
+			kernel.snapshot(ripples, ASCENT);
+			kernel.resetCounts();
+			for(Word w : words) w.updateTessellation(kernel);
+			int mismatches = legacy.compare(words);
+			if (mismatches > 0) failures++;
+
+			double legacyRate = measure(legacy, null, serial, lines, ripples, vertices);
+			logger.info(String.format("%2d ripples, per vertex: %7.1fM vertices/s", rippleCount, legacyRate/1e6));
+			report(kernel, "exact kernel", serial, words, lines, ripples, vertices, legacyRate, null,
+					mismatches == 0 ? "same vertices" : mismatches + " vertices differ");
+			if (report(fastKernel, "tables", serial, words, lines, ripples, vertices, legacyRate, kernel, "") > MAX_ERROR)
+				failures++;
+			if (report(fastKernel, "tables on " + threads + " threads", parallel, words, lines, ripples, vertices, legacyRate, kernel, "") > MAX_ERROR)
+				failures++;
+			if (report(blockedKernel, "blocks", serial, words, lines, ripples, vertices, legacyRate, kernel, "") > MAX_ERROR)
+				failures++;
+			if (report(lodKernel, "tables and patches", serial, words, lines, ripples, vertices, legacyRate, kernel, "") > MAX_ERROR)
+				failures++;
+			//the grid rounds off the crest of the waves by design, its error is only logged
+			report(fieldKernel, "grid", serial, words, lines, ripples, vertices, legacyRate, kernel, "");
+		}
+
+		parallel.shutdown();
+		if (failures > 0) {
+			logger.error(failures + " runs moved the vertices away from the exact ones, more than " + MAX_ERROR + "px for the fast kernels.");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Load the text and deformation settings of a config file, like
+	 * Rattlesnakes.loadConfig() does.
+	 * @param file config file
+	 * @throws IOException if the file can't be read
+	 */
+	static void loadConfig(String file) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		textFont = "fonts" + File.separator + props.getProperty("text.font", "Arial") + ".ttf";
+		textFile = props.getProperty("text.files", "body.txt").split(",")[0];
+		GlyphMesh.TESSELLATOR_DETAIL = (Float.valueOf(props.getProperty("text.tessellation.detail", "3")));
+		GlyphMesh.TESSELLATOR_TOLERANCE = (Float.valueOf(props.getProperty("text.tessellation.tolerance", "0")));
+		GlyphMesh.COMPACT = (Boolean.valueOf(props.getProperty("text.mesh.compact", "false")));
+		FastMath.ERROR = (Float.valueOf(props.getProperty("text.deform.error", "0.01")));
+		DeformKernel.BLOCKED = (Boolean.valueOf(props.getProperty("text.deform.blocked", "false")));
+		Word.RIPPLE_LOD = (Float.valueOf(props.getProperty("text.ripple.lod", "2")));
+		RippleField.CELL_SIZE = (Float.valueOf(props.getProperty("text.ripple.field", "0")));
+		DeformPool.THREADS = (Integer.valueOf(props.getProperty("text.deform.threads", "0")));
+	}
+
+	/**
+	 * Measure and log the speed, the error and the culling of a kernel.
+	 * @param kernel the kernel
+	 * @param name name of the kernel in the log
+	 * @param pool pool to deform the words on
+	 * @param words the words
+	 * @param lines the words by line
+	 * @param ripples the ripples
+	 * @param vertices number of vertices of the words
+	 * @param legacyRate vertices per second of the per vertex deformation
+	 * @param exact exact kernel to measure the error against, or null
+	 * @param note note to add to the log
+	 * @return largest distance from the exact vertices, 0 without an exact kernel
+	 */
+	static double report(DeformKernel kernel, String name, DeformPool pool, List<Word> words, Word[][] lines,
+			List<Ripple> ripples, int vertices, double legacyRate, DeformKernel exact, String note) {
+		//measure how far the kernel moves the vertices from the exact ones
+		double maxError = 0;
+		if (exact != null) {
+			exact.snapshot(ripples, ASCENT);
+			float[][] y = new float[words.size()][];
+			float[][] z = new float[words.size()][];
+			for(int i = 0; i < y.length; i++) {
+				Word w = words.get(i);
+				w.updateTessellation(exact);
+				y[i] = w.tessY.clone();
+				z[i] = w.tessZ.clone();
+			}
+			kernel.snapshot(ripples, ASCENT);
+			kernel.resetCounts();
+			pool.deform(lines, 0, lines.length, kernel, false, null);
+			for(int i = 0; i < y.length; i++) {
+				Word w = words.get(i);
+				for(int v = 0; v < y[i].length; v++)
+					maxError = Math.max(maxError, Math.hypot(w.tessY[v]-y[i][v], w.tessZ[v]-z[i][v]));
+			}
+			note = String.format("max error %.4fpx", maxError);
+		}
+		String counts = kernel.culledCount() + " of " + words.size() + " words culled, " +
+				kernel.vertexRippleCount() + " ripples per vertex, " + kernel.patchRippleCount() + " as patches";
+
+		double rate = measure(null, kernel, pool, lines, ripples, vertices);
+		logger.info(String.format("    %s: %7.1fM vertices/s (x%.2f), %s, %s", name, rate/1e6, rate/legacyRate, note, counts));
+		return maxError;
+	}
+
+	/**
+	 * Lay out the words of the first text, without the sketch.
+	 * @return the words, tessellated
+	 * @throws IOException if the text or the font can't be read
+	 * @throws FontFormatException if the font can't be read
+	 */
+	static List<Word> layoutWords() throws IOException, FontFormatException {
+		return layoutWords(null);
+	}
+
+	/**
+	 * Lay out the words of the first text.
+	 * @param parent sketch to draw the words in, null to only deform them
+	 * @return the words, tessellated
+	 * @throws IOException if the text or the font can't be read
+	 * @throws FontFormatException if the font can't be read
+	 */
+	static List<Word> layoutWords(PApplet parent) throws IOException, FontFormatException {
+		Font font = Font.createFont(Font.TRUETYPE_FONT, new File("data", textFont)).deriveFont(FONT_SIZE);
+		String[] lines = TextCorpus.readLines(new InputStreamReader(
+				new FileInputStream(new File("data", textFile)), TextCorpus.UTF8));
+
+		List<Word> words = new ArrayList<Word>();
+		Random rand = new Random(1);
+		float y = 0;
+		for(String line : lines) {
+			float x = 0;
+			for(String value : line.split(" ")) {
+				if (value.isEmpty()) continue;
+				GlyphMesh[] glyphs = new GlyphMesh[value.length()];
+				for(int i = 0; i < glyphs.length; i++)
+					glyphs[i] = GlyphCache.get(font, value.charAt(i));
+				Word w = new Word(parent, value, glyphs);
+				w.position.set(x, y, 0);
+				w.tessellate();
+
+				//contract one word in four, like when the snakes go through the text
+				if (rand.nextInt(4) == 0) {
+					w.contractFac = rand.nextFloat();
+					w.contractFrom.set(x + rand.nextFloat()*200, y, 0);
+				}
+
+				words.add(w);
+				x += w.glyphX[glyphs.length-1] + glyphs[glyphs.length-1].advance + FONT_SIZE/3;
+			}
+			y += FONT_SIZE;
+		}
+
+		//spread the lines over the screen
+		for(Word w : words)
+			w.position.y *= 1080 / Math.max(y, 1);
+		return words;
+	}
+
+	/**
+	 * Group words by line, like on a page.
+	 * @param words the words, line after line
+	 * @return the words of each line
+	 */
+	static Word[][] lines(List<Word> words) {
+		Map<Float, List<Word>> lines = new LinkedHashMap<Float, List<Word>>();
+		for(Word w : words) {
+			List<Word> line = lines.get(w.position.y);
+			if (line == null) lines.put(w.position.y, line = new ArrayList<Word>());
+			line.add(w);
+		}
+		Word[][] array = new Word[lines.size()][];
+		int l = 0;
+		for(List<Word> line : lines.values())
+			array[l++] = line.toArray(new Word[line.size()]);
+		return array;
+	}
+
+	/**
+	 * Create ripples spread over the screen at different stages.
+	 * @param count number of ripples
+	 * @return the ripples
+	 */
+	static List<Ripple> ripples(int count) {
+		Random rand = new Random(count);
+		List<Ripple> ripples = new ArrayList<Ripple>(count);
+		for(int i = 0; i < count; i++) {
+			Ripple r = new Ripple(rand.nextFloat()*1920, rand.nextFloat()*1080, 10);
+			r.radius = 100 + rand.nextFloat()*800;
+			ripples.add(r);
+		}
+		return ripples;
+	}
+
+	/**
+	 * Measure the vertices deformed per second by one of the implementations.
+	 * @param legacy per vertex deformation, or null
+	 * @param kernel deformation kernel, or null
+	 * @param pool pool to deform the words on with the kernel
+	 * @param lines the words by line
+	 * @param ripples the ripples
+	 * @param vertices number of vertices of the words
+	 * @return vertices per second
+	 */
+	static double measure(Legacy legacy, DeformKernel kernel, DeformPool pool, Word[][] lines,
+			List<Ripple> ripples, int vertices) {
+		long frames = 0;
+		long start = System.nanoTime();
+		long measureStart = 0;
+		boolean warm = false;
+		while(true) {
+			//deform all the words once per frame, like drawText() does
+			if (legacy != null)
+				legacy.deform(ripples);
+			else {
+				kernel.snapshot(ripples, ASCENT);
+				pool.deform(lines, 0, lines.length, kernel, false, null);
+			}
+			frames++;
+
+			long now = System.nanoTime();
+			if (!warm && now-start > WARMUP_MILLIS*1000000L) {
+				warm = true;
+				frames = 0;
+				measureStart = now;
+			}
+			else if (warm && now-measureStart > MEASURE_MILLIS*1000000L)
+				return (double)frames*vertices / ((now-measureStart)/1e9);
+		}
+	}
+
+	/**
+	 * The per vertex deformation the kernel replaced, with its vertex
+	 * allocated for each word and the font ascent read for each vertex.
+	 */
+	static class Legacy {
+		List<Word> words;			//the words
+		float[][] tess;				//deformed vertices of each word (x,y,z per vertex)
+		Ascent ascent;				//gives the font ascent, like the sketch did
+
+		/**
+		 * The font ascent, read through a call like textAscent().
+		 */
+		static class Ascent {
+			float value = ASCENT;
+			float textAscent() { return value; }
+		}
+
+		/**
+		 * Constructor.
+		 * @param words the words
+		 */
+		Legacy(List<Word> words) {
+			this.words = words;
+			this.tess = new float[words.size()][];
+			for(int i = 0; i < tess.length; i++)
+				tess[i] = new float[words.get(i).vertexCount()*3];
+			this.ascent = new Ascent();
+		}
+
+		/**
+		 * Deform the vertices of all the words.
+		 * @param ripples the ripples
+		 */
+		void deform(List<Ripple> ripples) {
+			if (ripples.isEmpty()) ripples = null;
+			for(int i = 0; i < tess.length; i++)
+				deform(words.get(i), tess[i], ripples);
+		}
+
+		/**
+		 * Deform the vertices of a word.
+		 * @param w the word
+		 * @param tess deformed vertices of the word
+		 * @param ripples the ripples, or null
+		 */
+		void deform(Word w, float[] tess, List<Ripple> ripples) {
+			float[] vertex = new float[3];
+
+			int o = 0;
+			for(int g = 0; g < w.glyphs.length; g++) {
+				GlyphMesh glyph = w.glyphs[g];
+
+				//compact glyphs are dequantized on the way, the rest pose is flat in both formats
+				short[] quantized = glyph.quantized;
+				float[] vertices = glyph.vertices;
+				int count = glyph.vertexCount();
+				for(int v = 0; v < count; v++) {
+					if (quantized != null) {
+						vertex[0] = glyph.originX + (quantized[v*2] & 0xFFFF)*glyph.stepX + w.glyphX[g];
+						vertex[1] = glyph.originY + (quantized[v*2+1] & 0xFFFF)*glyph.stepY;
+					}
+					else {
+						vertex[0] = vertices[v*3] + w.glyphX[g];
+						vertex[1] = vertices[v*3+1];
+					}
+					vertex[2] = 0;
+
+					if (w.contractFac != 0)
+						contractVertex(w, vertex);
+
+					//add ripples
+					if (ripples != null)
+						rippleVertex(w, vertex, ripples);
+
+					tess[o++] = vertex[0];
+					tess[o++] = vertex[1];
+					tess[o++] = vertex[2];
+				}
+			}
+		}
+
+		/**
+		 * Apply ripple deformation to a vertex.
+		 * @param w the word
+		 * @param vertex the vertex to deform
+		 * @param ripples the ripples
+		 */
+		void rippleVertex(Word w, float[] vertex, List<Ripple> ripples) {
+			//get the vertex absolute position
+			float vx = w.position.x + vertex[0];
+			float vy = w.position.y + ascent.textAscent() + vertex[1];
+
+			//for each ripple
+			for(Ripple r : ripples) {
+				//get the distance between the vertex and the edge of the ripple
+				double distSq = ((vx-r.center.x)*(vx-r.center.x) + (vy-r.center.y)*(vy-r.center.y));
+				distSq = Math.sqrt(distSq);
+				distSq -= r.radius;
+				if (distSq < 0) distSq *= -1;
+				//if the distance square is less than the threshold, apply ripple force
+				if (distSq < Word.RIPPLE_LENGTH)
+					vertex[2] += Math.sin((distSq/Word.RIPPLE_LENGTH)*Word.RIPPLE_CYCLES*2*PApplet.PI) *
+						Word.RIPPLE_AMPLITUDE * (1-distSq/Word.RIPPLE_LENGTH);
+			}
+		}
+
+		/**
+		 * Apply contract deformation to a vertex
+		 * @param w the word
+		 * @param vertex the vertex to deform
+		 */
+		void contractVertex(Word w, float[] vertex) {
+			float vy = w.position.y + ascent.textAscent() + vertex[1];
+			float dy = vy - w.contractFrom.y;
+			if (dy < 0) dy *= -1;
+
+			float vx = w.position.x + vertex[0];
+			float dx = vx - w.contractFrom.x;
+			if (dx < 0) dx *= -1;
+
+			//deform y position of the vertex
+			vertex[1] *= 1 - (dx>w.contractPeriod?0:(Math.cos(dx/w.contractPeriod*PConstants.PI)+1)/2) *
+				(w.contractFac>1?1:w.contractFac);
+		}
+
+		/**
+		 * Count the vertices that the kernel deformed differently.
+		 * @param words the words, deformed by the kernel
+		 * @return number of vertices that differ
+		 */
+		int compare(List<Word> words) {
+			int mismatches = 0;
+			for(int i = 0; i < tess.length; i++) {
+				Word w = words.get(i);
+				for(int v = 0; v < w.vertexCount(); v++)
+					if (Float.floatToIntBits(tess[i][v*3]) != Float.floatToIntBits(w.restX[v]) ||
+						Float.floatToIntBits(tess[i][v*3+1]) != Float.floatToIntBits(w.tessY[v]) ||
+						Float.floatToIntBits(tess[i][v*3+2]) != Float.floatToIntBits(w.tessZ[v]))
+						mismatches++;
+			}
+			return mismatches;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/**
+ * Checks that the fast kernels deform the words like the exact one.
+ * <p>Run it from the app's folder, optionally with the config file to use
+ * (config.properties by default). The words are laid out like in
+ * DeformBenchmark and deformed with 0, 1, 4 and 16 ripples, which grow over
+ * FRAMES frames so that the patches are checked at every stage of the waves.
+ * The exact kernel must give the same vertices as the per vertex
+ * deformation, and the tables, the blocks, the tables with patches, and the
+ * tables on the threads of a DeformPool must stay within MAX_ERROR of it.
+ * It fails with an exit code of 1 otherwise.</p>
+ * <p>Unlike the benchmark it doesn't measure anything, so it takes a few
+ * seconds, and it doesn't need a display.</p>
+ * <pre>java -Djava.awt.headless=true net.obxlabs.rattlesnakes.DeformCheck</pre>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class DeformCheck {
+
+	static Logger logger = Logger.getLogger(DeformCheck.class);
+
+	static final int[] RIPPLE_COUNTS = { 0, 1, 4, 16 };	//number of ripples of each run
+	static final int FRAMES = 20;						//frames of each run
+	static final float GROWTH = 15;						//growth of the ripples each frame (pixels)
+
+	/**
+	 * Run the check.
+	 * @param args optional config file
+	 */
+	public static void main(String[] args) {
+		//configure logger
+		PropertyConfigurator.configure("logging.properties");
+
+		List<Word> words;
+		try {
+			DeformBenchmark.loadConfig(args.length > 0 ? args[0] : "config.properties");
+			words = DeformBenchmark.layoutWords();
+		} catch (Exception e) {
+			logger.error("Could not lay out the words: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		long start = System.nanoTime();
+		Word[][] lines = DeformBenchmark.lines(words);
+		DeformPool serial = new DeformPool(1);
+		int threads = DeformPool.THREADS > 0 ? DeformPool.THREADS : Runtime.getRuntime().availableProcessors();
+		DeformPool parallel = new DeformPool(threads);
+
+		DeformKernel exact = new DeformKernel(0, 0);
+		DeformKernel tables = new DeformKernel(FastMath.ERROR, 0);
+		tables.blocked = false;
+		DeformKernel blocks = new DeformKernel(FastMath.ERROR, 0);
+		blocks.blocked = true;
+		DeformKernel patches = new DeformKernel(FastMath.ERROR, Word.RIPPLE_LOD);
+
+		int failures = 0;
+		for(int rippleCount : RIPPLE_COUNTS) {
+			List<Ripple> ripples = DeformBenchmark.ripples(rippleCount);
+			DeformBenchmark.Legacy legacy = new DeformBenchmark.Legacy(words);
+			int mismatches = 0;
+			double tablesError = 0, blocksError = 0, patchesError = 0, threadsError = 0;
+			for(int frame = 0; frame < FRAMES; frame++) {
+				//the exact vertices, which must be the per vertex ones
+				legacy.deform(ripples);
+				exact.snapshot(ripples, DeformBenchmark.ASCENT);
+				serial.deform(lines, 0, lines.length, exact, false, null);
+				mismatches += legacy.compare(words);
+				float[][] y = new float[words.size()][];
+				float[][] z = new float[words.size()][];
+				for(int i = 0; i < y.length; i++) {
+					y[i] = words.get(i).tessY.clone();
+					z[i] = words.get(i).tessZ.clone();
+				}
+
+				tablesError = Math.max(tablesError, error(tables, serial, words, lines, ripples, y, z));
+				blocksError = Math.max(blocksError, error(blocks, serial, words, lines, ripples, y, z));
+				patchesError = Math.max(patchesError, error(patches, serial, words, lines, ripples, y, z));
+				threadsError = Math.max(threadsError, error(tables, parallel, words, lines, ripples, y, z));
+
+				for(Ripple r : ripples)
+					r.radius += GROWTH;
+			}
+
+			String message = String.format("%2d ripples: exact %s, max error tables %.4fpx, blocks %.4fpx, patches %.4fpx, %d threads %.4fpx",
+					rippleCount, mismatches == 0 ? "same vertices" : mismatches + " vertices differ",
+					tablesError, blocksError, patchesError, threads, threadsError);
+			if (mismatches > 0 || Math.max(Math.max(tablesError, blocksError), Math.max(patchesError, threadsError)) > DeformBenchmark.MAX_ERROR) {
+				logger.error(message + ", more than " + DeformBenchmark.MAX_ERROR + "px.");
+				failures++;
+			}
+			else logger.info(message + ".");
+		}
+
+		serial.shutdown();
+		parallel.shutdown();
+		if (failures > 0) {
+			logger.error(failures + " runs moved the vertices away from the exact ones.");
+			System.exit(1);
+		}
+		logger.info("The kernels deformed the words like the exact one in " + (System.nanoTime()-start)/1000000 + "ms.");
+		System.exit(0);
+	}
+
+	/**
+	 * Deform the words with a kernel and measure how far it moved them from
+	 * the exact vertices.
+	 * @param kernel the kernel
+	 * @param pool pool to deform the words on
+	 * @param words the words
+	 * @param lines the words by line
+	 * @param ripples the ripples
+	 * @param y exact y of the vertices of each word
+	 * @param z exact z of the vertices of each word
+	 * @return largest distance from the exact vertices
+	 */
+	static double error(DeformKernel kernel, DeformPool pool, List<Word> words, Word[][] lines,
+			List<Ripple> ripples, float[][] y, float[][] z) {
+		kernel.snapshot(ripples, DeformBenchmark.ASCENT);
+		pool.deform(lines, 0, lines.length, kernel, false, null);
+		double max = 0;
+		for(int i = 0; i < y.length; i++) {
+			Word w = words.get(i);
+			for(int v = 0; v < y[i].length; v++)
+				max = Math.max(max, Math.hypot(w.tessY[v]-y[i][v], w.tessZ[v]-z[i][v]));
+		}
+		return max;
+	}
+}
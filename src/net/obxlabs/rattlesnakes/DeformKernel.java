@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+
+/**
+ * Deforms the vertices of the words for a frame.
+ * <p>The ripples are copied into flat arrays once per frame, with the font
+ * ascent, and each word is then deformed in one pass over its vertices,
+ * which are stored as separate x, y and z arrays. The contraction only moves
+ * the vertices vertically and the ripples only push them in depth, so the x
+ * array is the rest pose and is never written. Nothing is allocated once the
+ * ripple arrays are big enough.</p>
+ * <p>By default the wave and the falloff are read from the tables of
+ * FastMath, and the distance to a ripple is only square rooted for the
+ * vertices within the ring's band. When text.deform.error is 0, the exact
+ * functions are used with the same arithmetic as deforming each vertex on
+ * its own, down to which operations are done in float and which in double,
+ * so the words look exactly the same as they used to.</p>
+ * <p>Before touching the vertices of a word, its rest bounds are tested
+ * against the band each ripple's wave reaches and against the contraction
+ * period. Only the ripples that can reach the word are applied, and a word
+ * that nothing reaches keeps its rest pose without going through its
+ * vertices (they are only reset once, when the last wave leaves it).</p>
+ * <p>A ripple whose wave is almost flat over a word, because the word is
+ * small or far enough from the crest, is only evaluated at the corners of
+ * the word and spread over its vertices as a bilinear patch. The error of the
+ * patch is estimated from the size of the word and the curvature of the wave
+ * (and of the ring) over the distances the word covers, and the patch is used
+ * when it's below text.ripple.lod.</p>
+ * <p>With text.deform.blocked, the ripples are evaluated on blocks of
+ * vertices with the Chebyshev series of FastMath instead of its tables, in
+ * loops the JIT can turn into SIMD instructions.</p>
+ * <p>When text.ripple.field is set, the ripples are instead added up once
+ * per frame on the grid of a RippleField, and the words they reach read
+ * their depth from it.</p>
+ * <p>A kernel deforms one word at a time. To deform words on several
+ * threads, each thread has its own kernel that follows the ripples of the
+ * one that took them for the frame (see DeformPool).</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class DeformKernel {
+
+	static final float CULL_MARGIN = 1;	//margin around the words when testing what reaches them (pixels)
+	static boolean BLOCKED = false;		//true to evaluate the ripples on blocks of vertices with the Chebyshev series of the wave
+
+	float ascent;				//ascent of the current font
+	int rippleCount;			//number of ripples
+	float[] rippleX;			//horizontal center of each ripple
+	float[] rippleY;			//vertical center of each ripple
+	float[] rippleRadius;		//radius of each ripple
+	FastMath fastMath;			//tables of the wave and the falloff, null to use the exact functions
+	float[] activeX;			//horizontal center of the ripples that reach the word being deformed
+	float[] activeY;			//vertical center of the ripples that reach the word being deformed
+	float[] activeRadius;		//radius of the ripples that reach the word being deformed
+	float lodError;				//maximum error of a ripple evaluated as a patch (pixels), 0 to evaluate all the vertices
+	RippleField field;			//grid the ripples are added up on, null to add them up on each vertex
+	boolean blocked;			//true to evaluate the ripples on blocks of vertices with the series of the wave
+	float[] blockT;				//distance of each vertex of the block to the ring, from -1 to 1 over the wave
+	float[] blockB1, blockB2;	//last two terms of the series for each vertex of the block
+	int deformedCount;			//number of words deformed since the counts were reset
+	int culledCount;			//number of words left at rest since the counts were reset
+	int vertexRippleCount;		//number of ripples evaluated on each vertex of a word since the counts were reset
+	int patchRippleCount;		//number of ripples evaluated as a patch over a word since the counts were reset
+
+	/**
+	 * Constructor.
+	 * <p>The tables and the patches are set for the error bounds of the config.</p>
+	 */
+	public DeformKernel() {
+		this(FastMath.ERROR, Word.RIPPLE_LOD);
+	}
+
+	/**
+	 * Constructor.
+	 * @param error maximum error of each wave on the vertices (pixels), 0 to use the exact functions
+	 * @param lodError maximum error of a ripple evaluated as a patch (pixels), 0 to evaluate all the vertices
+	 */
+	public DeformKernel(float error, float lodError) {
+		this(error, lodError, null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param error maximum error of each wave on the vertices (pixels), 0 to use the exact functions
+	 * @param lodError maximum error of a ripple evaluated as a patch (pixels), 0 to evaluate all the vertices
+	 * @param field grid to add up the ripples on, null to add them up on each vertex
+	 */
+	public DeformKernel(float error, float lodError, RippleField field) {
+		this.lodError = lodError;
+		this.field = field;
+		this.blocked = BLOCKED;
+		blockT = new float[256];
+		blockB1 = new float[256];
+		blockB2 = new float[256];
+		if (error > 0)
+			fastMath = new FastMath(error, Word.RIPPLE_LENGTH, Word.RIPPLE_CYCLES, Word.RIPPLE_AMPLITUDE);
+		rippleX = new float[8];
+		rippleY = new float[8];
+		rippleRadius = new float[8];
+		activeX = new float[8];
+		activeY = new float[8];
+		activeRadius = new float[8];
+	}
+
+	/**
+	 * Constructor.
+	 * <p>The kernel shares the tables, the grid and the settings of another
+	 * kernel, with its own arrays, to deform words on another thread.</p>
+	 * @param frame kernel to share the tables and the grid of
+	 */
+	public DeformKernel(DeformKernel frame) {
+		this.lodError = frame.lodError;
+		this.field = frame.field;
+		this.blocked = frame.blocked;
+		this.fastMath = frame.fastMath;
+		blockT = new float[256];
+		blockB1 = new float[256];
+		blockB2 = new float[256];
+		activeX = new float[8];
+		activeY = new float[8];
+		activeRadius = new float[8];
+		follow(frame);
+	}
+
+	/**
+	 * Take the ripples and the font ascent of the frame.
+	 * @param ripples active ripples
+	 * @param ascent ascent of the current font
+	 */
+	public void snapshot(List<Ripple> ripples, float ascent) {
+		this.ascent = ascent;
+
+		int count = ripples.size();
+		if (count > rippleX.length) {
+			int capacity = Math.max(count, rippleX.length*2);
+			rippleX = Arrays.copyOf(rippleX, capacity);
+			rippleY = Arrays.copyOf(rippleY, capacity);
+			rippleRadius = Arrays.copyOf(rippleRadius, capacity);
+			activeX = new float[capacity];
+			activeY = new float[capacity];
+			activeRadius = new float[capacity];
+		}
+		for(int i = 0; i < count; i++) {
+			Ripple r = ripples.get(i);
+			rippleX[i] = r.center.x;
+			rippleY[i] = r.center.y;
+			rippleRadius[i] = r.radius;
+		}
+		rippleCount = count;
+
+		if (field != null)
+			field.update(rippleX, rippleY, rippleRadius, rippleCount, fastMath);
+	}
+
+	/**
+	 * Change the font ascent, keeping the ripples of the frame.
+	 * @param ascent ascent of the current font
+	 */
+	public void setAscent(float ascent) { this.ascent = ascent; }
+
+	/**
+	 * Take the ripples and the font ascent another kernel has for the frame.
+	 * <p>The ripples are read from the other kernel's arrays, which must not
+	 * change until the words are deformed.</p>
+	 * @param frame kernel with the ripples of the frame
+	 */
+	public void follow(DeformKernel frame) {
+		ascent = frame.ascent;
+		rippleX = frame.rippleX;
+		rippleY = frame.rippleY;
+		rippleRadius = frame.rippleRadius;
+		rippleCount = frame.rippleCount;
+		if (rippleCount > activeX.length) {
+			activeX = new float[frame.activeX.length];
+			activeY = new float[frame.activeX.length];
+			activeRadius = new float[frame.activeX.length];
+		}
+	}
+
+	/**
+	 * Reset the number of deformed and culled words, once per frame.
+	 */
+	public void resetCounts() {
+		deformedCount = 0;
+		culledCount = 0;
+		vertexRippleCount = 0;
+		patchRippleCount = 0;
+	}
+
+	/**
+	 * Get the number of words deformed since the counts were reset.
+	 * @return number of words
+	 */
+	public int deformedCount() { return deformedCount; }
+
+	/**
+	 * Get the number of words left at rest since the counts were reset.
+	 * @return number of words
+	 */
+	public int culledCount() { return culledCount; }
+
+	/**
+	 * Get the number of ripples evaluated on each vertex of a word since the counts were reset.
+	 * @return number of ripples, counted once per word
+	 */
+	public int vertexRippleCount() { return vertexRippleCount; }
+
+	/**
+	 * Get the number of ripples evaluated as a patch over a word since the counts were reset.
+	 * @return number of ripples, counted once per word
+	 */
+	public int patchRippleCount() { return patchRippleCount; }
+
+	/**
+	 * Deform the vertices of a word.
+	 * @param w the word, tessellated
+	 */
+	public void deform(Word w) {
+		float originX = w.position.x;
+		float originY = w.position.y + ascent;
+
+		//bounds of the word, the contraction only pulls the vertices towards the baseline
+		float left = originX + w.restMinX - CULL_MARGIN;
+		float right = originX + w.restMaxX + CULL_MARGIN;
+		float top = originY + Math.min(w.restMinY, 0) - CULL_MARGIN;
+		float bottom = originY + Math.max(w.restMaxY, 0) + CULL_MARGIN;
+
+		//check if the contraction reaches the word
+		boolean contracted = false;
+		if (w.contractFac != 0) {
+			float fromX = w.contractFrom.x;
+			float dx = fromX < left ? left-fromX : (fromX > right ? fromX-right : 0);
+			contracted = dx <= w.contractPeriod;
+		}
+
+		//keep the ripples whose band reaches the word, and add up the
+		//ripples that are almost flat over it at its corners
+		int active = 0;
+		boolean patched = false;
+		boolean sampled = false;
+		float topLeft = 0, topRight = 0, bottomLeft = 0, bottomRight = 0;
+		float width = right-left;
+		float height = bottom-top;
+		float sizeSq = width*width + height*height;
+		final float length = Word.RIPPLE_LENGTH;
+		for(int r = 0; r < rippleCount; r++) {
+			float cx = rippleX[r];
+			float cy = rippleY[r];
+			float radius = rippleRadius[r];
+
+			//closest and furthest distances from the center to the bounds
+			float nx = cx < left ? left-cx : (cx > right ? cx-right : 0);
+			float ny = cy < top ? top-cy : (cy > bottom ? cy-bottom : 0);
+			float fx = Math.max(Math.abs(cx-left), Math.abs(cx-right));
+			float fy = Math.max(Math.abs(cy-top), Math.abs(cy-bottom));
+			float outer = radius + length;
+			float inner = radius - length;
+			if (nx*nx + ny*ny >= outer*outer) continue;
+			if (inner > 0 && fx*fx + fy*fy <= inner*inner) continue;
+
+			//the grid has all the ripples, one that reaches the word is enough
+			if (field != null) {
+				sampled = true;
+				break;
+			}
+
+			if (lodError > 0) {
+				//closest distance from the word to the ring, the wave has a crease
+				//on the ring so the words across it are always deformed per vertex
+				float near = (float)Math.sqrt(nx*nx + ny*ny);
+				float far = (float)Math.sqrt(fx*fx + fy*fy);
+				float ring = near > radius ? near-radius : (far < radius ? radius-far : 0);
+				if (ring > 0 && sizeSq/8 * curvature(ring, near) <= lodError) {
+					topLeft += wave(cx, cy, radius, left, top);
+					topRight += wave(cx, cy, radius, right, top);
+					bottomLeft += wave(cx, cy, radius, left, bottom);
+					bottomRight += wave(cx, cy, radius, right, bottom);
+					patched = true;
+					patchRippleCount++;
+					continue;
+				}
+			}
+
+			activeX[active] = cx;
+			activeY[active] = cy;
+			activeRadius[active] = radius;
+			active++;
+		}
+
+		//nothing reaches the word, put it back at rest if it isn't already
+		if (!contracted && active == 0 && !patched && !sampled) {
+			if (w.deformed) {
+				System.arraycopy(w.restY, 0, w.tessY, 0, w.vertexCount);
+				Arrays.fill(w.tessZ, 0, w.vertexCount, 0);
+				w.deformed = false;
+			}
+			culledCount++;
+			return;
+		}
+
+		if (blocked && fastMath != null)
+			deformBlocked(w.restX, w.restY, w.tessY, w.tessZ, w.vertexCount,
+					originX, originY,
+					contracted ? w.contractFac : 0, w.contractFrom.x, w.contractPeriod,
+					activeX, activeY, activeRadius, active);
+		else
+			deform(w.restX, w.restY, w.tessY, w.tessZ, w.vertexCount,
+					originX, originY,
+					contracted ? w.contractFac : 0, w.contractFrom.x, w.contractPeriod,
+					activeX, activeY, activeRadius, active, fastMath);
+		vertexRippleCount += active;
+
+		//read the depth of the ripples from the grid
+		if (sampled)
+			field.addTo(w.restX, w.tessY, w.tessZ, w.vertexCount, originX, originY);
+
+		//spread the flat ripples over the vertices
+		if (patched) {
+			float[] x = w.restX;
+			float[] y = w.tessY;
+			float[] z = w.tessZ;
+			float invWidth = 1/width;
+			float invHeight = 1/height;
+			for(int v = 0; v < w.vertexCount; v++) {
+				float u = (originX + x[v] - left)*invWidth;
+				float t = (originY + y[v] - top)*invHeight;
+				float upper = topLeft + (topRight-topLeft)*u;
+				float lower = bottomLeft + (bottomRight-bottomLeft)*u;
+				z[v] += upper + (lower-upper)*t;
+			}
+		}
+
+		w.deformed = true;
+		deformedCount++;
+	}
+
+	/**
+	 * Get the largest curvature of a ripple over part of the screen.
+	 * <p>The wave is A*sin(k*s)*(1-s/L) at a distance s from the ring, so on
+	 * either side of the ring its second derivative is at most
+	 * A*(k*k*(1-s/L) + 2*k/L) from s on. Around
+	 * the ring, the slope of the wave, at most A*(k + 1/L), also bends it by
+	 * one over the distance from the center.</p>
+	 * @param ring closest distance to the ring
+	 * @param center closest distance to the center
+	 * @return largest second derivative of the depth
+	 */
+	static float curvature(float ring, float center) {
+		float length = Word.RIPPLE_LENGTH;
+		float amplitude = Word.RIPPLE_AMPLITUDE;
+		float k = Word.RIPPLE_CYCLES*2*PApplet.PI/length;
+		float falloff = ring < length ? 1-ring/length : 0;
+		return amplitude*(k*k*falloff + 2*k/length) + amplitude*(k + 1/length)/Math.max(center, 1);
+	}
+
+	/**
+	 * Get the depth of a ripple at a point.
+	 * @param cx horizontal center of the ripple
+	 * @param cy vertical center of the ripple
+	 * @param radius radius of the ripple
+	 * @param x horizontal position of the point
+	 * @param y vertical position of the point
+	 * @return depth
+	 */
+	float wave(float cx, float cy, float radius, float x, float y) {
+		float dx = x - cx;
+		float dy = y - cy;
+		double dist = Math.sqrt(dx*dx + dy*dy) - radius;
+		if (dist < 0) dist *= -1;
+		if (dist >= Word.RIPPLE_LENGTH) return 0;
+		if (fastMath != null) return fastMath.wave((float)dist);
+		return (float)(Math.sin((dist/Word.RIPPLE_LENGTH)*Word.RIPPLE_CYCLES*2*PApplet.PI) *
+				Word.RIPPLE_AMPLITUDE * (1-dist/Word.RIPPLE_LENGTH));
+	}
+
+	/**
+	 * Deform vertices.
+	 * @param restX horizontal rest position of each vertex, relative to the origin
+	 * @param restY vertical rest position of each vertex, relative to the origin
+	 * @param y deformed vertical position of each vertex
+	 * @param z deformed depth of each vertex
+	 * @param count number of vertices
+	 * @param originX absolute horizontal position of the origin
+	 * @param originY absolute vertical position of the origin, with the font ascent
+	 * @param contractFac contract factor, 0 when not contracted
+	 * @param contractFromX horizontal position to contract away from
+	 * @param contractPeriod period of the contraction
+	 * @param rippleX horizontal center of each ripple
+	 * @param rippleY vertical center of each ripple
+	 * @param rippleRadius radius of each ripple
+	 * @param rippleCount number of ripples
+	 * @param fastMath tables of the wave and the falloff, null to use the exact functions
+	 */
+	public static void deform(float[] restX, float[] restY, float[] y, float[] z, int count,
+			float originX, float originY,
+			float contractFac, float contractFromX, float contractPeriod,
+			float[] rippleX, float[] rippleY, float[] rippleRadius, int rippleCount,
+			FastMath fastMath) {
+		if (fastMath != null) {
+			deformFast(restX, restY, y, z, count, originX, originY, contractFac, contractFromX, contractPeriod,
+					rippleX, rippleY, rippleRadius, rippleCount, fastMath);
+			return;
+		}
+
+		//contract vertically around the contraction point
+		if (contractFac != 0) {
+			float fac = contractFac > 1 ? 1 : contractFac;
+			for(int v = 0; v < count; v++) {
+				float dx = originX + restX[v] - contractFromX;
+				if (dx < 0) dx *= -1;
+				y[v] = (float)(restY[v] * (1 - (dx>contractPeriod?0:(Math.cos(dx/contractPeriod*PConstants.PI)+1)/2) * fac));
+			}
+		}
+		else
+			System.arraycopy(restY, 0, y, 0, count);
+
+		//push in depth with each ripple, one ripple at a time
+		Arrays.fill(z, 0, count, 0);
+		final float length = Word.RIPPLE_LENGTH;
+		final double cycles = Word.RIPPLE_CYCLES;
+		final double amplitude = Word.RIPPLE_AMPLITUDE;
+		for(int r = 0; r < rippleCount; r++) {
+			float cx = rippleX[r];
+			float cy = rippleY[r];
+			double radius = rippleRadius[r];
+			for(int v = 0; v < count; v++) {
+				float dx = originX + restX[v] - cx;
+				float dy = originY + y[v] - cy;
+				double dist = Math.sqrt(dx*dx + dy*dy) - radius;
+				if (dist < 0) dist *= -1;
+				if (dist < length)
+					z[v] += Math.sin((dist/length)*cycles*2*PApplet.PI) * amplitude * (1-dist/length);
+			}
+		}
+	}
+
+	/**
+	 * Deform vertices with the tables of the wave and the falloff.
+	 * @see #deform(float[], float[], float[], float[], int, float, float, float, float, float, float[], float[], float[], int, FastMath)
+	 */
+	static void deformFast(float[] restX, float[] restY, float[] y, float[] z, int count,
+			float originX, float originY,
+			float contractFac, float contractFromX, float contractPeriod,
+			float[] rippleX, float[] rippleY, float[] rippleRadius, int rippleCount,
+			FastMath fastMath) {
+		//contract vertically around the contraction point
+		if (contractFac != 0) {
+			float fac = contractFac > 1 ? 1 : contractFac;
+			float invPeriod = 1/contractPeriod;
+			for(int v = 0; v < count; v++) {
+				float dx = originX + restX[v] - contractFromX;
+				if (dx < 0) dx *= -1;
+				y[v] = dx > contractPeriod ? restY[v] : restY[v] * (1 - fastMath.falloff(dx*invPeriod) * fac);
+			}
+		}
+		else
+			System.arraycopy(restY, 0, y, 0, count);
+
+		//push in depth with each ripple, only the vertices in the ring's band are square rooted
+		Arrays.fill(z, 0, count, 0);
+		final float length = fastMath.rippleLength;
+		for(int r = 0; r < rippleCount; r++) {
+			float cx = rippleX[r];
+			float cy = rippleY[r];
+			float radius = rippleRadius[r];
+			float outer = radius + length;
+			float outerSq = outer*outer;
+			float inner = radius - length;
+			float innerSq = inner > 0 ? inner*inner : -1;
+			for(int v = 0; v < count; v++) {
+				float dx = originX + restX[v] - cx;
+				float dy = originY + y[v] - cy;
+				float distSq = dx*dx + dy*dy;
+				if (distSq >= outerSq || distSq <= innerSq) continue;
+				float dist = (float)Math.sqrt(distSq) - radius;
+				if (dist < 0) dist *= -1;
+				if (dist < length)
+					z[v] += fastMath.wave(dist);
+			}
+		}
+	}
+
+	/**
+	 * Deform vertices in blocks, with the Chebyshev series of the wave.
+	 * <p>Each ripple goes through the vertices of the word in passes of plain
+	 * arithmetic without branches or table lookups (the distances to the
+	 * ring, then each step of the series), which the JIT compiles to SIMD
+	 * instructions where the processor has them. The contraction is done
+	 * like in the table kernel.</p>
+	 * @see #deform(float[], float[], float[], float[], int, float, float, float, float, float, float[], float[], float[], int, FastMath)
+	 */
+	void deformBlocked(float[] restX, float[] restY, float[] y, float[] z, int count,
+			float originX, float originY,
+			float contractFac, float contractFromX, float contractPeriod,
+			float[] rippleX, float[] rippleY, float[] rippleRadius, int rippleCount) {
+		deformFast(restX, restY, y, z, count, originX, originY, contractFac, contractFromX, contractPeriod,
+				rippleX, rippleY, rippleRadius, 0, fastMath);
+		if (rippleCount == 0) return;
+
+		if (blockT.length < count) {
+			blockT = new float[count];
+			blockB1 = new float[count];
+			blockB2 = new float[count];
+		}
+		final float[] t = blockT;
+		final float[] b1 = blockB1;
+		final float[] b2 = blockB2;
+		final float[] series = fastMath.waveSeries;
+		final int degree = series.length-1;
+		final float length = fastMath.rippleLength;
+		final float scale = 2/length;
+
+		for(int r = 0; r < rippleCount; r++) {
+			float cx = rippleX[r] - originX;
+			float cy = rippleY[r] - originY;
+			float radius = rippleRadius[r];
+
+			//distance to the ring, from -1 to 1 over the wave, the wave is flat past its end
+			for(int v = 0; v < count; v++) {
+				float dx = restX[v] - cx;
+				float dy = y[v] - cy;
+				t[v] = Math.min(Math.abs((float)Math.sqrt(dx*dx + dy*dy) - radius), length)*scale - 1;
+			}
+
+			//sum up the series from its last coefficient (Clenshaw)
+			float last = series[degree];
+			for(int v = 0; v < count; v++) {
+				b1[v] = last;
+				b2[v] = 0;
+			}
+			for(int k = degree-1; k >= 1; k--) {
+				float c = series[k];
+				for(int v = 0; v < count; v++) {
+					float b = 2*t[v]*b1[v] - b2[v] + c;
+					b2[v] = b1[v];
+					b1[v] = b;
+				}
+			}
+			float first = series[0];
+			for(int v = 0; v < count; v++)
+				z[v] += t[v]*b1[v] - b2[v] + first;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Updates and deforms the words of a frame on all the cores.
+ * <p>Each word is updated and deformed on its own, so the lines in view are
+ * split between the threads of a fork-join pool while the animation thread
+ * waits, and the words are then drawn in order on the animation thread. The
+ * ripples and the font ascent of the frame are taken once by the sketch's
+ * kernel and only read by the threads. Each thread deforms with its own
+ * kernel, which shares the frame's ripples and tables but has its own
+ * arrays for the ripples reaching the word it's on, and the number of words
+ * each thread deformed or culled is added back to the frame's kernel.</p>
+ * <p>With a single thread, or when text.deform.threads is 1, the words are
+ * simply updated and deformed on the calling thread.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class DeformPool {
+
+	static Logger logger = Logger.getLogger(DeformPool.class);
+
+	static int THREADS = 0;						//number of threads deforming the words, 0 for one per core
+	static final int MIN_TASK_VERTICES = 4096;	//fewest vertices worth handing to another thread
+
+	ForkJoinPool pool;			//threads deforming the words, null to deform them on the calling thread
+
+	/**
+	 * Constructor.
+	 * @param threads number of threads, 0 for one per core
+	 */
+	public DeformPool(int threads) {
+		if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+		if (threads > 1) {
+			//the animation thread waits for them, so they run at its priority
+			this.pool = new ForkJoinPool(threads,
+					new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+						public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+							ForkJoinWorkerThread t = new Worker(pool);
+							t.setName("deform-" + t.getPoolIndex());
+							return t;
+						}
+					}, null, false);
+		}
+		logger.debug("Deforming the words on " + threads + " thread" + (threads > 1 ? "s." : "."));
+	}
+
+	/**
+	 * Update and deform the words of a range of lines.
+	 * <p>Fully transparent words are updated, but not deformed since they
+	 * are not drawn.</p>
+	 * @param lines words of each line
+	 * @param first first line
+	 * @param last line after the last one
+	 * @param frame kernel with the ripples of the frame, where the counts are added up
+	 * @param update true to update the words before deforming them
+	 * @param arena arena to write the deformed words to, or null
+	 */
+	public void deform(Word[][] lines, int first, int last, DeformKernel frame, boolean update, PageArena arena) {
+		if (first >= last) return;
+		if (pool == null) {
+			deformLines(lines, first, last, frame, update, arena);
+			return;
+		}
+
+		LinesTask task = new LinesTask(lines, first, last, frame, update, arena);
+		pool.invoke(task);
+		frame.deformedCount += task.deformedCount;
+		frame.culledCount += task.culledCount;
+		frame.vertexRippleCount += task.vertexRippleCount;
+		frame.patchRippleCount += task.patchRippleCount;
+	}
+
+	/**
+	 * Update and deform the words of a range of lines with a kernel.
+	 * @param lines words of each line
+	 * @param first first line
+	 * @param last line after the last one
+	 * @param kernel kernel to deform the words with
+	 * @param update true to update the words before deforming them
+	 * @param arena arena to write the deformed words to, or null
+	 */
+	static void deformLines(Word[][] lines, int first, int last, DeformKernel kernel, boolean update, PageArena arena) {
+		for(int l = first; l < last; l++) {
+			for(Word w : lines[l]) {
+				if (update) w.update();
+				if (w.opacity != 0) w.updateTessellation(kernel);
+				if (arena != null) arena.write(w);
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads.
+	 */
+	public void shutdown() {
+		if (pool != null) pool.shutdownNow();
+	}
+
+	/**
+	 * Thread of the pool, with its own kernel.
+	 */
+	static class Worker extends ForkJoinWorkerThread {
+		DeformKernel kernel;		//kernel of the thread, null until its first words
+		DeformKernel frame;			//kernel the thread's kernel was made from
+
+		/**
+		 * Constructor.
+		 * @param pool the pool
+		 */
+		Worker(ForkJoinPool pool) {
+			super(pool);
+		}
+
+		/**
+		 * Get the thread's kernel, with the ripples of a frame.
+		 * @param frame kernel with the ripples of the frame
+		 * @return the thread's kernel
+		 */
+		DeformKernel kernel(DeformKernel frame) {
+			if (kernel == null || this.frame != frame) {
+				kernel = new DeformKernel(frame);
+				this.frame = frame;
+			}
+			kernel.follow(frame);
+			return kernel;
+		}
+	}
+
+	/**
+	 * Updates and deforms a range of lines, splitting it in halves while it
+	 * has enough vertices.
+	 */
+	static class LinesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Word[][] lines;			//words of each line
+		final int first, last;			//range of lines
+		final DeformKernel frame;		//kernel with the ripples of the frame
+		final boolean update;			//true to update the words before deforming them
+		final PageArena arena;			//arena to write the deformed words to, or null
+		int deformedCount;				//number of words deformed
+		int culledCount;				//number of words left at rest
+		int vertexRippleCount;			//number of ripples evaluated on each vertex of a word
+		int patchRippleCount;			//number of ripples evaluated as a patch over a word
+
+		/**
+		 * Constructor.
+		 * @param lines words of each line
+		 * @param first first line
+		 * @param last line after the last one
+		 * @param frame kernel with the ripples of the frame
+		 * @param update true to update the words before deforming them
+		 * @param arena arena to write the deformed words to, or null
+		 */
+		LinesTask(Word[][] lines, int first, int last, DeformKernel frame, boolean update, PageArena arena) {
+			this.lines = lines;
+			this.first = first;
+			this.last = last;
+			this.frame = frame;
+			this.update = update;
+			this.arena = arena;
+		}
+
+		protected void compute() {
+			//the pool can run the task on the thread that invoked it, which
+			//has no kernel of its own and would fork outside of the pool
+			Thread thread = Thread.currentThread();
+			if (!(thread instanceof Worker)) {
+				deformLines(lines, first, last, frame, update, arena);
+				return;
+			}
+
+			//split the lines while both halves are worth a thread
+			if (last-first > 1 && vertexCount() >= 2*MIN_TASK_VERTICES) {
+				int middle = (first+last) >>> 1;
+				LinesTask top = new LinesTask(lines, first, middle, frame, update, arena);
+				LinesTask bottom = new LinesTask(lines, middle, last, frame, update, arena);
+				invokeAll(top, bottom);
+				add(top);
+				add(bottom);
+				return;
+			}
+
+			DeformKernel kernel = ((Worker)thread).kernel(frame);
+			kernel.resetCounts();
+			deformLines(lines, first, last, kernel, update, arena);
+			deformedCount = kernel.deformedCount;
+			culledCount = kernel.culledCount;
+			vertexRippleCount = kernel.vertexRippleCount;
+			patchRippleCount = kernel.patchRippleCount;
+		}
+
+		/**
+		 * Get the number of vertices of the lines.
+		 * @return number of vertices
+		 */
+		int vertexCount() {
+			int count = 0;
+			for(int l = first; l < last; l++)
+				for(Word w : lines[l])
+					count += w.vertexCount;
+			return count;
+		}
+
+		/**
+		 * Add up the counts of another task.
+		 * @param task the other task
+		 */
+		void add(LinesTask task) {
+			deformedCount += task.deformedCount;
+			culledCount += task.culledCount;
+			vertexRippleCount += task.vertexRippleCount;
+			patchRippleCount += task.patchRippleCount;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tables of the ripple wave and the contraction falloff.
+ * <p>The wave (a sine fading out over the ripple length) and the falloff
+ * (half a cosine over the contraction period) are sampled once and read back
+ * with linear interpolation instead of calling Math.sin() and Math.cos() for
+ * each vertex. The tables have just enough samples for each wave to move the
+ * vertices less than the error bound away from the exact functions: the
+ * error of a linear interpolation is at most h*h/8 times the largest second
+ * derivative of the function, for samples h apart. Ripples that overlap add
+ * up their errors like they add up their waves.</p>
+ * <p>The wave is also fitted with a Chebyshev series, of the lowest degree
+ * that stays within the same error bound, for the kernel that evaluates it
+ * on blocks of vertices with plain arithmetic instead of table lookups.</p>
+ * <p>The tables never change once they are built, so they can be read from
+ * any thread.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class FastMath {
+
+	static Logger logger = Logger.getLogger(FastMath.class);
+
+	static final int MAX_SERIES_DEGREE = 64;	//highest degree of the wave's series
+	static float ERROR = 0.01f;					//maximum error of each wave on the vertices (pixels), 0 to use the exact functions
+	static final float MAX_GLYPH_HEIGHT = 1000;	//largest distance of a vertex from the baseline the falloff error is bounded for (pixels)
+
+	final float error;							//maximum error of each wave on the vertices (pixels)
+	final float rippleLength;					//length of the ripple wave
+	final float[] wave;							//depth of the ripple wave by distance from the ring
+	final float waveScale;						//number of wave samples per pixel
+	final float[] falloff;						//contraction falloff from the center to the end of the period
+	final int falloffSamples;					//number of falloff intervals over the period
+	final float[] waveSeries;					//Chebyshev coefficients of the wave over the ripple length
+
+	/**
+	 * Constructor.
+	 * @param error maximum error of each wave on the vertices (pixels)
+	 * @param rippleLength length of the ripple wave
+	 * @param rippleCycles number of wave cycles
+	 * @param rippleAmplitude amplitude of the wave
+	 */
+	public FastMath(float error, float rippleLength, int rippleCycles, float rippleAmplitude) {
+		this.error = error;
+		this.rippleLength = rippleLength;
+
+		//half of the error goes to the interpolation, the rest covers the float rounding
+		double bound = error/2;
+
+		//the wave is A*sin(k*d)*(1-d/L), its second derivative is at most A*(k*k + 2*k/L)
+		double k = rippleCycles*2*Math.PI/rippleLength;
+		double waveCurvature = rippleAmplitude*(k*k + 2*k/rippleLength);
+		int waveSamples = samples(rippleLength, waveCurvature, bound);
+		wave = new float[waveSamples+2];
+		for(int i = 0; i <= waveSamples; i++) {
+			double d = (double)i*rippleLength/waveSamples;
+			wave[i] = (float)(Math.sin((d/rippleLength)*rippleCycles*2*Math.PI) * rippleAmplitude * (1-d/rippleLength));
+		}
+		wave[waveSamples+1] = wave[waveSamples];
+		waveScale = waveSamples/rippleLength;
+
+		//the falloff is (cos(PI*t)+1)/2, its second derivative is at most PI*PI/2,
+		//and it scales the vertical position of the vertices
+		falloffSamples = samples(1, Math.PI*Math.PI/2, bound/MAX_GLYPH_HEIGHT);
+		falloff = new float[falloffSamples+2];
+		for(int i = 0; i <= falloffSamples; i++)
+			falloff[i] = (float)((Math.cos((double)i/falloffSamples*Math.PI)+1)/2);
+		falloff[falloffSamples+1] = falloff[falloffSamples];
+
+		waveSeries = fitWave(rippleLength, rippleCycles, rippleAmplitude, bound);
+	}
+
+	/**
+	 * Fit the wave with a Chebyshev series of the lowest degree within an error bound.
+	 * <p>If even the highest degree misses the bound, a warning is logged and
+	 * that series is used.</p>
+	 * @param rippleLength length of the ripple wave
+	 * @param rippleCycles number of wave cycles
+	 * @param rippleAmplitude amplitude of the wave
+	 * @param bound maximum error
+	 * @return coefficients of the series
+	 */
+	static float[] fitWave(float rippleLength, int rippleCycles, float rippleAmplitude, double bound) {
+		float[] series = null;
+		double error = 0;
+		for(int degree = 4; degree <= MAX_SERIES_DEGREE; degree++) {
+			//interpolate at the Chebyshev nodes
+			int nodes = degree+1;
+			series = new float[nodes];
+			for(int j = 0; j < nodes; j++) {
+				double sum = 0;
+				for(int k = 0; k < nodes; k++) {
+					double theta = Math.PI*(k+0.5)/nodes;
+					double d = (Math.cos(theta)+1)/2*rippleLength;
+					sum += Math.sin((d/rippleLength)*rippleCycles*2*Math.PI) * rippleAmplitude * (1-d/rippleLength) * Math.cos(j*theta);
+				}
+				series[j] = (float)(sum*2/nodes/(j == 0 ? 2 : 1));
+			}
+
+			//check the error of the float evaluation over the whole wave
+			error = 0;
+			for(int i = 0; i <= 4096; i++) {
+				double d = (double)i*rippleLength/4096;
+				double exact = Math.sin((d/rippleLength)*rippleCycles*2*Math.PI) * rippleAmplitude * (1-d/rippleLength);
+				error = Math.max(error, Math.abs(series(series, (float)(d*2/rippleLength-1)) - exact));
+			}
+			if (error <= bound) return series;
+		}
+
+		logger.warn("The wave series of degree " + MAX_SERIES_DEGREE + " is off by up to " + (float)error +
+				"px, more than the bound of " + (float)bound + "px.");
+		return series;
+	}
+
+	/**
+	 * Evaluate a Chebyshev series.
+	 * @param series coefficients of the series
+	 * @param t position from -1 to 1
+	 * @return value
+	 */
+	static float series(float[] series, float t) {
+		float b1 = 0, b2 = 0;
+		for(int k = series.length-1; k >= 1; k--) {
+			float b = 2*t*b1 - b2 + series[k];
+			b2 = b1;
+			b1 = b;
+		}
+		return t*b1 - b2 + series[0];
+	}
+
+	/**
+	 * Get the number of intervals needed to interpolate a function linearly.
+	 * @param range range of the function
+	 * @param curvature largest second derivative of the function
+	 * @param bound maximum error
+	 * @return number of intervals
+	 */
+	static int samples(double range, double curvature, double bound) {
+		double step = Math.sqrt(8*bound/curvature);
+		return Math.max(1, (int)Math.ceil(range/step));
+	}
+
+	/**
+	 * Get the depth of the ripple wave.
+	 * @param dist distance from the ring of the ripple, from 0 to the ripple length
+	 * @return depth
+	 */
+	public final float wave(float dist) {
+		float f = dist*waveScale;
+		int i = (int)f;
+		float a = wave[i];
+		return a + (wave[i+1]-a)*(f-i);
+	}
+
+	/**
+	 * Get the contraction falloff.
+	 * @param t distance from the contraction point over the period, from 0 to 1
+	 * @return falloff, 1 at the contraction point and 0 at the end of the period
+	 */
+	public final float falloff(float t) {
+		float f = t*falloffSamples;
+		int i = (int)f;
+		float a = falloff[i];
+		return a + (falloff[i+1]-a)*(f-i);
+	}
+
+	/**
+	 * Get the number of samples of both tables.
+	 * @return number of samples
+	 */
+	public int size() { return wave.length + falloff.length; }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import processing.core.PApplet;
+import processing.core.PFont;
+
+/**
+ * Cache of generated bitmap fonts on disk.
+ * <p>Creating a font with a set of characters rasterizes each of its glyphs.
+ * The first time a font file is created at a size with a set of characters,
+ * the result is saved in the cache folder, and later starts load the glyphs
+ * back instead of rasterizing them again. Cached fonts are keyed by the
+ * content of the font file, the size, the smoothing and the characters, so
+ * changing any of them creates a new font.</p>
+ * <p>Only font files (ttf or otf) with a known set of characters are cached,
+ * other fonts are created as usual.</p>
+ * <p>The folder keeps the most recently used fonts only. Loading a font
+ * marks it as used, and the others are deleted when the cache is opened
+ * and when a font is added.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class FontCache {
+
+	static Logger logger = Logger.getLogger(FontCache.class);
+
+	static String FOLDER = "";		//folder of the cached fonts (empty to disable)
+	static int FILES = 64;			//number of cached fonts kept in the folder
+
+	//font files loaded to restore the outlines of cached fonts, by path
+	static Map<String, Font> baseFonts = new HashMap<String, Font>();
+
+	/**
+	 * Create a font, or load it from the cache.
+	 * <p>Same as PApplet.createFont(), but cached.</p>
+	 * @param p parent Processing applet
+	 * @param name font file or name
+	 * @param size font size
+	 * @param smooth true for antialiasing
+	 * @param charset characters to create, or null to create them when needed
+	 * @return the font
+	 */
+	public static PFont createFont(PApplet p, String name, float size, boolean smooth, char[] charset) {
+		//only cache font files with a fixed set of characters
+		String lowerName = name.toLowerCase();
+		File fontFile = new File(p.dataPath(name));
+		if (FOLDER == null || FOLDER.isEmpty() || charset == null ||
+			!(lowerName.endsWith(".ttf") || lowerName.endsWith(".otf")) || !fontFile.exists())
+			return p.createFont(name, size, smooth, charset);
+
+		long start = System.nanoTime();
+		File cached = null;
+		try {
+			cached = new File(FOLDER, key(fontFile, size, smooth, charset) + ".vlw");
+			if (cached.exists()) {
+				PFont font = load(cached, fontFile, size);
+				cached.setLastModified(System.currentTimeMillis());
+				logger.debug("Loaded font " + name + " at " + size + " from the cache in " +
+						(System.nanoTime()-start)/1000000 + "ms.");
+				return font;
+			}
+		} catch (IOException e) {
+			logger.warn("Could not load font " + name + " at " + size + " from the cache: " + e.getMessage());
+		}
+
+		//not cached yet, create it and save it for next time
+		PFont font = p.createFont(name, size, smooth, charset);
+		if (cached != null) {
+			try {
+				save(font, cached);
+				prune();
+			} catch (IOException e) {
+				logger.warn("Could not save font " + name + " at " + size + " to the cache: " + e.getMessage());
+			}
+		}
+		logger.debug("Created font " + name + " at " + size + " in " + (System.nanoTime()-start)/1000000 + "ms.");
+		return font;
+	}
+
+	/**
+	 * Open the cache, deleting the fonts that weren't used recently.
+	 */
+	public static void open() {
+		if (FOLDER == null || FOLDER.isEmpty()) return;
+		
+		//fonts left half written by a start that stopped while saving them
+		File[] files = new File(FOLDER).listFiles();
+		if (files == null) return;
+		for(File file : files)
+			if (file.getName().endsWith(".vlw.tmp")) file.delete();
+
+		int deleted = prune();
+		if (deleted > 0) logger.info("Deleted " + deleted + " old fonts from the font cache.");
+	}
+
+	/**
+	 * Delete the fonts past the most recently used ones.
+	 * @return number of fonts deleted
+	 */
+	static synchronized int prune() {
+		File[] files = new File(FOLDER).listFiles();
+		if (files == null) return 0;
+
+		int deleted = 0;
+		int kept = 0;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long ta = a.lastModified(), tb = b.lastModified();
+				return ta > tb ? -1 : (ta < tb ? 1 : 0);
+			}
+		});
+		for(File file : files) {
+			if (!file.getName().endsWith(".vlw")) continue;
+			if (kept < FILES) {
+				kept++;
+				continue;
+			}
+			if (file.delete()) {
+				logger.debug("Deleted " + file.getName() + " from the font cache.");
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Load a cached font.
+	 * <p>The cached glyphs are images only, so the outlines of the font file
+	 * are attached back to the font for the words to be tessellated.</p>
+	 * @param cached cached font file
+	 * @param fontFile original font file
+	 * @param size font size
+	 * @return the font
+	 * @throws IOException if the font can't be read
+	 */
+	static PFont load(File cached, File fontFile, float size) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(cached));
+		try {
+			PFont font = new PFont(in);
+			font.setFont(baseFont(fontFile).deriveFont(size));
+			return font;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Save a font to the cache.
+	 * <p>The font is written to a temporary file first, so that a start
+	 * that stops half way doesn't leave a broken font in the cache.</p>
+	 * @param font the font
+	 * @param cached cached font file
+	 * @throws IOException if the font can't be written
+	 */
+	static void save(PFont font, File cached) throws IOException {
+		File folder = cached.getParentFile();
+		if (folder != null && !folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Could not create folder " + folder);
+
+		File tmp = new File(folder, cached.getName() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+		try {
+			font.save(out);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(cached)) {
+			tmp.delete();
+			throw new IOException("Could not rename " + tmp + " to " + cached);
+		}
+	}
+
+	/**
+	 * Get the font of a font file, loading it the first time.
+	 * @param fontFile font file
+	 * @return the font, at size 1
+	 * @throws IOException if the font can't be read
+	 */
+	static synchronized Font baseFont(File fontFile) throws IOException {
+		Font font = baseFonts.get(fontFile.getPath());
+		if (font == null) {
+			try {
+				font = Font.createFont(Font.TRUETYPE_FONT, fontFile);
+			} catch (FontFormatException e) {
+				throw new IOException("Could not read font " + fontFile, e);
+			}
+			baseFonts.put(fontFile.getPath(), font);
+		}
+		return font;
+	}
+
+	/**
+	 * Get the cache key of a font.
+	 * @param fontFile font file
+	 * @param size font size
+	 * @param smooth true for antialiasing
+	 * @param charset characters of the font
+	 * @return file name of the cached font, without extension
+	 * @throws IOException if the font file can't be read
+	 */
+	static String key(File fontFile, float size, boolean smooth, char[] charset) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("No SHA-1 digest available", e);
+		}
+
+		PageBundle.digestFile(digest, fontFile);
+		digest.update((size + "|" + smooth + "|" + new String(charset)).getBytes("UTF-8"));
+
+		StringBuilder key = new StringBuilder();
+		String fileName = fontFile.getName();
+		key.append(fileName.substring(0, fileName.lastIndexOf('.'))).append('-').append(Math.round(size)).append('-');
+		for(byte b : digest.digest())
+			key.append(String.format("%02x", b & 0xff));
+		return key.toString();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Font;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of glyph meshes shared by all the words of all the pages.
+ * <p>Meshes are keyed by font (which includes its name, style and size)
+ * and by character. It is safe to use from the page preparation threads.</p>
+ * <p>Only the glyphs of the most recently used fonts are kept, so streaming
+ * texts at many sizes doesn't grow the cache without end. The words hold on
+ * to their own meshes, so dropping a font only means that its glyphs are
+ * built again if it comes back.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class GlyphCache {
+
+	static final int FONTS = 64;	//number of fonts whose glyphs are kept
+
+	//glyph meshes by font in access order, then by character
+	static Map<Font, ConcurrentMap<Character, GlyphMesh>> glyphs =
+			new LinkedHashMap<Font, ConcurrentMap<Character, GlyphMesh>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<Font, ConcurrentMap<Character, GlyphMesh>> eldest) {
+					return size() > FONTS;
+				}
+			};
+
+	/**
+	 * Get the mesh of a glyph, building it the first time it's needed.
+	 * @param font font of the glyph, at the size it is drawn
+	 * @param c character of the glyph
+	 * @return the shared mesh
+	 */
+	public static GlyphMesh get(Font font, char c) {
+		ConcurrentMap<Character, GlyphMesh> fontGlyphs;
+		synchronized(glyphs) {
+			fontGlyphs = glyphs.get(font);
+			if (fontGlyphs == null) {
+				fontGlyphs = new ConcurrentHashMap<Character, GlyphMesh>();
+				glyphs.put(font, fontGlyphs);
+			}
+		}
+
+		GlyphMesh mesh = fontGlyphs.get(c);
+		if (mesh == null) {
+			//two threads may build the same glyph at once, but only one is kept
+			mesh = new GlyphMesh(font, c);
+			GlyphMesh existing = fontGlyphs.putIfAbsent(c, mesh);
+			if (existing != null) mesh = existing;
+		}
+		return mesh;
+	}
+
+	/**
+	 * Get the number of cached glyph meshes.
+	 * @return number of glyphs
+	 */
+	public static int size() {
+		int count = 0;
+		synchronized(glyphs) {
+			for(ConcurrentMap<Character, GlyphMesh> fontGlyphs : glyphs.values())
+				count += fontGlyphs.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Forget all the cached glyph meshes.
+	 */
+	public static void clear() {
+		synchronized(glyphs) { glyphs.clear(); }
+	}
+}
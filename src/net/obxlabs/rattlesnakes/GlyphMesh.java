@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * The tessellated outline of a single glyph.
+ * <p>Glyph meshes are shared between all the words that use the same
+ * character of the same font, see {@link GlyphCache}. They should not
+ * be modified once built.</p>
+ * <p>When text.mesh.compact is set, the shared vertices are kept in 16-bit
+ * fixed point. This only shrinks the glyph cache: each word dequantizes its
+ * glyphs into floats when it is tessellated, and the deformation and the
+ * renderers read those, so the memory of the words and the bandwidth of a
+ * frame are the same in both formats.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class GlyphMesh {
+
+    static float TESSELLATOR_DETAIL = 3.0f;		//number of segments per curve (fixed mode)
+    static float TESSELLATOR_TOLERANCE = 0;		//max distance in pixels between curves and segments (adaptive mode, 0 to disable)
+    static int TESSELLATOR_MAX_DETAIL = 32;		//max number of segments per curve (adaptive mode)
+    static boolean COMPACT = false;				//store the shared vertices as 16-bit fixed point x,y (no z), the words still use floats
+    static final int QUANTIZE_STEPS = 0xFFFF;	//number of fixed point steps across the glyph's bounds
+
+	protected static FontRenderContext frc = new FontRenderContext(null, false, false);
+
+    static protected Tessellator.Callback tessCallback = new TessCallback();
+
+	char value;				//character of the glyph
+	float advance;			//horizontal advance to the next glyph
+	float[] vertices;		//unique vertices of the glyph (x,y,z per vertex), null when compact
+	short[] indices;		//triangles of the glyph, as unsigned indices into the vertices
+	
+	//compact vertices, as unsigned fixed point x,y relative to the glyph's bounds
+	short[] quantized;		//fixed point x,y per vertex, null when not compact
+	float originX, originY;	//top left corner of the glyph's bounds
+	float stepX, stepY;		//size of a fixed point step
+
+	//growing vertex and index buffers, only used while building the mesh
+	float[] tessInit;
+	int tessInitLength;
+	short[] indexInit;
+	int indexInitLength;
+
+	/**
+	 * Constructor.
+	 * @param font font of the glyph, at the size it is drawn
+	 * @param value character of the glyph
+	 */
+	public GlyphMesh(Font font, char value) {
+		this.value = value;
+
+		GlyphVector gv = font.createGlyphVector(frc, String.valueOf(value));
+		this.advance = (float)gv.getGlyphPosition(gv.getNumGlyphs()).getX();
+
+		tessellate(gv.getOutline().getPathIterator(null));
+
+		//keep only the final mesh
+		if (COMPACT) quantize();
+		else vertices = Arrays.copyOf(tessInit, tessInitLength);
+		indices = Arrays.copyOf(indexInit, indexInitLength);
+		tessInit = null;
+		indexInit = null;
+	}
+	
+	/**
+	 * Store the built vertices as fixed point x,y relative to their bounds.
+	 * <p>The rest pose of a glyph is flat, so z is dropped.</p>
+	 */
+	protected void quantize() {
+		int count = tessInitLength/3;
+		
+		//find the bounds of the vertices
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for(int i = 0; i < tessInitLength; i+=3) {
+			if (tessInit[i] < minX) minX = tessInit[i];
+			if (tessInit[i] > maxX) maxX = tessInit[i];
+			if (tessInit[i+1] < minY) minY = tessInit[i+1];
+			if (tessInit[i+1] > maxY) maxY = tessInit[i+1];
+		}
+		
+		originX = count == 0 ? 0 : minX;
+		originY = count == 0 ? 0 : minY;
+		stepX = count == 0 ? 0 : (maxX-minX)/QUANTIZE_STEPS;
+		stepY = count == 0 ? 0 : (maxY-minY)/QUANTIZE_STEPS;
+		
+		quantized = new short[count*2];
+		for(int v = 0; v < count; v++) {
+			quantized[v*2] = (short)(stepX == 0 ? 0 : Math.round((tessInit[v*3]-originX)/stepX));
+			quantized[v*2+1] = (short)(stepY == 0 ? 0 : Math.round((tessInit[v*3+1]-originY)/stepY));
+		}
+	}
+
+	/**
+	 * Constructor for a mesh that is already built, for example read
+	 * from a compiled page bundle.
+	 * <p>The vertices (or quantized vertices) and indices are set afterwards.</p>
+	 * @param value character of the glyph
+	 * @param advance horizontal advance to the next glyph
+	 */
+	GlyphMesh(char value, float advance) {
+		this.value = value;
+		this.advance = advance;
+	}
+
+	/**
+	 * Get the number of vertices of the mesh.
+	 * @return number of vertices
+	 */
+	public int vertexCount() { return quantized != null ? quantized.length/2 : vertices.length/3; }
+	
+	/**
+	 * Get the x coordinate of a vertex in the rest pose.
+	 * @param v vertex index
+	 * @return x coordinate
+	 */
+	public float x(int v) { return quantized != null ? originX + (quantized[v*2] & 0xFFFF)*stepX : vertices[v*3]; }
+	
+	/**
+	 * Get the y coordinate of a vertex in the rest pose.
+	 * @param v vertex index
+	 * @return y coordinate
+	 */
+	public float y(int v) { return quantized != null ? originY + (quantized[v*2+1] & 0xFFFF)*stepY : vertices[v*3+1]; }
+
+	/**
+	 * Get the number of triangles of the mesh.
+	 * @return number of triangles
+	 */
+	public int triangleCount() { return indices.length/3; }
+
+	/**
+	 * Get the vertex index at a position in the index array.
+	 * @param i position in the index array
+	 * @return vertex index
+	 */
+	public int index(int i) { return indices[i] & 0xFFFF; }
+
+	/**
+	 * Tessellate a glyph outline in a single pass.
+	 * <p>Lines and quadratic curves are converted to cubic curves (to allow
+	 * smooth deformations), each cubic is flattened into segments, and the
+	 * points go straight to the tessellator.</p>
+	 * @param iter path iterator of the glyph's outline
+	 */
+	protected void tessellate(PathIterator iter) {
+		//six element array received from the Java2D path iterator
+		float points[] = new float[6];
+
+		//control points and end anchor of the current cubic curve
+		float curve[] = new float[6];
+
+		//the buffers start at a typical glyph's size, and grow if needed
+		tessInit = new float[192];
+		tessInitLength = 0;
+		indexInit = new short[192];
+		indexInitLength = 0;
+
+		//each glyph gets its own tessellator, so glyphs can be tessellated in parallel
+		Tessellator tessellator = new Tessellator(tessCallback);
+
+		tessellator.beginPolygon(this);
+
+		float lastX = 0;
+		float lastY = 0;
+		float midX, midY;
+
+		while (!iter.isDone()) {
+			switch (iter.currentSegment(points)) {
+				case PathIterator.SEG_MOVETO:
+					tessellator.beginContour();
+					tessellator.vertex(points[0], points[1]);
+
+					lastX = points[0];
+					lastY = points[1];
+					iter.next();
+					continue;
+
+				case PathIterator.SEG_LINETO:
+					//the first control point is 2/3 the distance between
+					//the last anchor and the mid point, the second is 1/3
+					//the distance between the mid point and the end point
+					midX = (lastX + points[0])/2;
+					midY = (lastY + points[1])/2;
+					curve[0] = lastX + (midX-lastX)*2/3;
+					curve[1] = lastY + (midY-lastY)*2/3;
+					curve[2] = midX + (points[0]-midX)/3;
+					curve[3] = midY + (points[1]-midY)/3;
+					curve[4] = points[0];
+					curve[5] = points[1];
+					break;
+
+				case PathIterator.SEG_QUADTO:
+					curve[0] = lastX + (points[0]-lastX)*2/3;
+					curve[1] = lastY + (points[1]-lastY)*2/3;
+					curve[2] = points[0] + (points[2]-points[0])/3;
+					curve[3] = points[1] + (points[3]-points[1])/3;
+					curve[4] = points[2];
+					curve[5] = points[3];
+					break;
+
+				case PathIterator.SEG_CUBICTO:
+					System.arraycopy(points, 0, curve, 0, 6);
+					break;
+
+				case PathIterator.SEG_CLOSE:
+					tessellator.endContour();
+					iter.next();
+					continue;
+			}
+
+			//flatten the curve
+			float detail = curveDetail(lastX, lastY, curve);
+			for (int i = 1; i <= detail; i++) {
+				float t = i/detail;
+
+				tessellator.vertex(bezierPoint(lastX, curve[0], curve[2], curve[4], t),
+								   bezierPoint(lastY, curve[1], curve[3], curve[5], t));
+			}
+
+			lastX = curve[4];
+			lastY = curve[5];
+
+			iter.next();
+		}
+
+		tessellator.endPolygon();
+	}
+
+	/**
+	 * Get the number of segments to flatten a cubic curve into.
+	 * <p>In fixed mode, every curve gets TESSELLATOR_DETAIL segments. In adaptive
+	 * mode, the count comes from the curvature of the control polygon (Wang's
+	 * formula) so that the segments stay within TESSELLATOR_TOLERANCE pixels of
+	 * the curve. The outline is in pixels at the line's font size, so larger lines
+	 * get more segments and straight edges get a single one.</p>
+	 * @param x0 x of the start anchor
+	 * @param y0 y of the start anchor
+	 * @param pts control points and end anchor from the path iterator
+	 * @return number of segments
+	 */
+	static float curveDetail(float x0, float y0, float[] pts) {
+		if (TESSELLATOR_TOLERANCE <= 0) return TESSELLATOR_DETAIL;
+		
+		//largest second difference of the control points
+		float ddx1 = x0 - 2*pts[0] + pts[2];
+		float ddy1 = y0 - 2*pts[1] + pts[3];
+		float ddx2 = pts[0] - 2*pts[2] + pts[4];
+		float ddy2 = pts[1] - 2*pts[3] + pts[5];
+		float dd = Math.max(ddx1*ddx1 + ddy1*ddy1, ddx2*ddx2 + ddy2*ddy2);
+		
+		//n = sqrt(3/4 * max|dd| / tolerance)
+		int n = (int)Math.ceil(Math.sqrt(0.75 * Math.sqrt(dd) / TESSELLATOR_TOLERANCE));
+		if (n < 1) return 1;
+		if (n > TESSELLATOR_MAX_DETAIL) return TESSELLATOR_MAX_DETAIL;
+		return n;
+	}
+	
+	/**
+	 * Evaluate a cubic bezier at t.
+	 * <p>Same as PGraphics.bezierPoint(), without needing the applet's renderer.</p>
+	 * @param a first anchor
+	 * @param b first control point
+	 * @param c second control point
+	 * @param d second anchor
+	 * @param t position on the curve (0 to 1)
+	 * @return the coordinate at t
+	 */
+	static float bezierPoint(float a, float b, float c, float d, float t) {
+		float t1 = 1.0f - t;
+		return a*t1*t1*t1 + 3*b*t*t1*t1 + 3*c*t*t*t1 + d*t*t*t;
+	}
+	
+    /**
+     * This tessellator callback collects the unique vertices and the
+     * triangle indices of a glyph to initialize its mesh.
+     */
+    static class TessCallback implements Tessellator.IndexedCallback {
+    	
+        public void vertex(float x, float y, float z, Object polygonData) {
+            GlyphMesh g = (GlyphMesh)polygonData;
+            if (g.tessInitLength/3 > 0xFFFF)
+            	throw new IllegalStateException("Too many vertices in glyph '" + g.value + "'");
+            if (g.tessInitLength+3 > g.tessInit.length)
+            	g.tessInit = Arrays.copyOf(g.tessInit, g.tessInit.length*2);
+            g.tessInit[g.tessInitLength++] = x;
+            g.tessInit[g.tessInitLength++] = y;
+            g.tessInit[g.tessInitLength++] = z;
+        }
+        
+        public void triangle(int a, int b, int c, Object polygonData) {
+            GlyphMesh g = (GlyphMesh)polygonData;
+            if (g.indexInitLength+3 > g.indexInit.length)
+            	g.indexInit = Arrays.copyOf(g.indexInit, g.indexInit.length*2);
+            g.indexInit[g.indexInitLength++] = (short)a;
+            g.indexInit[g.indexInitLength++] = (short)b;
+            g.indexInit[g.indexInitLength++] = (short)c;
+        }
+    }
+    
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.concurrent.Future;
+
+/**
+ * A prepared page of background text, laid out and tessellated.
+ * <p>A page can be taller than the screen, in which case it is seen through
+ * a viewport that scrolls. Only the lines in view (and a margin around it)
+ * are positioned on screen, updated and drawn, and the lines scrolled far
+ * away release their deformed vertices until they come back.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class Page {
+
+	int index;				//index of the text file the page was built from
+	Word[][] words;			//words of the page, grouped by lines
+	float[] wordSpacing;	//word spacing offset for each line
+	
+	float[] maxBottom;		//lowest bottom of the lines up to each line, in page coordinates
+	float[] minTop;			//highest top of the lines from each line, in page coordinates
+	int[] lineScroll;		//scroll at which each line's words are positioned
+	int viewFirst, viewLast;	//lines in view, first included and last excluded
+	int tessFirst, tessLast;	//lines that may have deformed vertices
+	Future<?> images;		//rasterizing the words in view, null until the first lines scroll in
+
+	/**
+	 * Constructor.
+	 * @param index index of the page's text
+	 * @param lineCount number of lines on the page
+	 */
+	public Page(int index, int lineCount) {
+		this.index = index;
+		this.words = new Word[lineCount][];
+		this.wordSpacing = new float[lineCount];
+		this.viewLast = lineCount;
+	}
+
+	/**
+	 * Get the number of lines on the page.
+	 * @return number of lines
+	 */
+	public int lineCount() { return words.length; }
+	
+	/**
+	 * Get the height of the page.
+	 * @return bottom of the lowest line, in page coordinates
+	 */
+	public float height() {
+		if (maxBottom == null) measure();
+		return maxBottom.length == 0 ? 0 : maxBottom[maxBottom.length-1];
+	}
+	
+	/**
+	 * Get the first line in view.
+	 * @return index of the line
+	 */
+	public int viewFirst() { return viewFirst; }
+	
+	/**
+	 * Get the line after the last one in view.
+	 * @return index of the line
+	 */
+	public int viewLast() { return viewLast; }
+	
+	/**
+	 * Scroll the viewport.
+	 * <p>The words of the lines that come into view are tessellated and
+	 * moved to their position on screen, so that they can be touched and
+	 * deformed in screen coordinates like the rest of the sketch. Lines
+	 * that are more than twice the margin out of view are released.</p>
+	 * @param scroll top of the viewport, in page coordinates
+	 * @param viewHeight height of the viewport
+	 * @param margin distance around the viewport where lines are kept in view
+	 */
+	public void scrollTo(int scroll, int viewHeight, int margin) {
+		if (maxBottom == null) measure();
+		
+		//find the lines in view, and the ones close enough to keep
+		int first = firstLineEndingAfter(scroll - margin);
+		int last = firstLineStartingFrom(scroll + viewHeight + margin);
+		int keepFirst = firstLineEndingAfter(scroll - margin*2);
+		int keepLast = firstLineStartingFrom(scroll + viewHeight + margin*2);
+		
+		//release the lines that scrolled far away
+		for(int l = tessFirst; l < tessLast; l++)
+			if (l < keepFirst || l >= keepLast)
+				for(Word w : words[l])
+					w.release();
+		int keptFirst = Math.max(tessFirst, keepFirst);
+		int keptLast = Math.min(tessLast, keepLast);
+		
+		//place the lines in view on screen
+		for(int l = first; l < last; l++) {
+			int dy = lineScroll[l] - scroll;
+			for(Word w : words[l]) {
+				if (!w.isTessellated()) w.tessellate();
+				if (dy != 0) {
+					w.position.y += dy;
+					w.bounds.y += dy;
+				}
+			}
+			lineScroll[l] = scroll;
+		}
+		
+		viewFirst = first;
+		viewLast = last;
+		tessFirst = keptFirst < keptLast ? Math.min(first, keptFirst) : first;
+		tessLast = keptFirst < keptLast ? Math.max(last, keptLast) : last;
+	}
+	
+	/**
+	 * Measure the extent of the lines.
+	 * <p>Lines can overlap with negative line spacings, so the lowest bottom
+	 * and highest top are accumulated to find the lines in view with a
+	 * binary search.</p>
+	 */
+	protected void measure() {
+		int count = words.length;
+		maxBottom = new float[count];
+		minTop = new float[count];
+		lineScroll = new int[count];
+		for(int l = 0; l < count; l++) {
+			float bottom = Float.NEGATIVE_INFINITY;
+			for(Word w : words[l])
+				bottom = Math.max(bottom, w.bounds.y + w.bounds.height);
+			maxBottom[l] = l == 0 ? bottom : Math.max(maxBottom[l-1], bottom);
+		}
+		for(int l = count-1; l >= 0; l--) {
+			float top = Float.POSITIVE_INFINITY;
+			for(Word w : words[l])
+				top = Math.min(top, w.bounds.y);
+			minTop[l] = l == count-1 ? top : Math.min(minTop[l+1], top);
+		}
+		
+		//the words may have been tessellated when they were built
+		tessFirst = 0;
+		tessLast = count;
+	}
+	
+	/**
+	 * Find the first line that ends below a position.
+	 * @param y vertical position, in page coordinates
+	 * @return index of the line, or the number of lines if none
+	 */
+	protected int firstLineEndingAfter(float y) {
+		int lo = 0, hi = maxBottom.length;
+		while(lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (maxBottom[mid] > y) hi = mid;
+			else lo = mid+1;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Find the first line from which all the lines start at or below a position.
+	 * @param y vertical position, in page coordinates
+	 * @return index of the line, or the number of lines if none
+	 */
+	protected int firstLineStartingFrom(float y) {
+		int lo = 0, hi = minTop.length;
+		while(lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (minTop[mid] >= y) hi = mid;
+			else lo = mid+1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Get the total number of triangles of the words on the page.
+	 * @return number of triangles
+	 */
+	public int triangleCount() {
+		int count = 0;
+		for(Word[] line : words)
+			for(Word w : line)
+				count += w.triangleCount();
+		return count;
+	}
+
+	/**
+	 * Get the total number of words on the page.
+	 * @return number of words
+	 */
+	public int totalWords() {
+		int count = 0;
+		for(Word[] line : words)
+			count += line.length;
+		return count;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The vertices of the words in view of a page, in direct buffers for OpenGL.
+ * <p>The words of the lines in view, with the margin around the screen,
+ * are laid out in the order of the page each time those lines change. Each
+ * word gets the offset and number of its unique vertices, and the triangles
+ * of its glyphs are written once to the index buffer, shifted to the word's
+ * offset. The vertices are written each frame, once, as they were deformed:
+ * floats (x, y, z, opacity) in the native byte order, with x already moved
+ * to the word's position and y and z left around the word's origin so that
+ * ArenaRenderer can tilt them for the shadow and for the fill.</p>
+ * <p>The buffers only grow when more vertices or triangles are in view than
+ * they hold, so their size follows the screen and not the length of the
+ * text. One arena is drawn from for both pages when the text changes, each
+ * page being laid out, written and uploaded in turn.</p>
+ * <p>The words are written right after they are deformed, on the threads
+ * of the DeformPool: each word only writes its own range, at absolute
+ * positions, and the buffers' positions are only used on the animation
+ * thread to upload them.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class PageArena {
+
+	static Logger logger = Logger.getLogger(PageArena.class);
+
+	static final int STRIDE = 5;	//floats of each vertex (x, origin y, y, z, opacity)
+
+	FloatBuffer vertices;		//vertices of the words (x, origin y, y, z, opacity)
+	IntBuffer indices;			//corners of the triangles of the words, as vertices of the arena
+	int capacity;				//number of vertices the vertex buffer holds
+	int vertexCount;			//number of vertices of the words laid out
+	int cornerCount;			//number of corners of the words laid out
+	int layoutCount;			//number of times the words were laid out, to know when to upload the indices
+	Word[][] lines;				//lines laid out, null until the first layout
+	int first, last;			//range of lines laid out
+
+	/**
+	 * Constructor.
+	 */
+	public PageArena() {
+		vertices = allocate(0).asFloatBuffer();
+		indices = allocate(0).asIntBuffer();
+	}
+
+	/**
+	 * Give each word of a range of lines its range of the vertices and write
+	 * its triangles, unless they were the last ones laid out.
+	 * @param lines words of the page, grouped by lines
+	 * @param first first line
+	 * @param last line after the last one
+	 */
+	public void layout(Word[][] lines, int first, int last) {
+		if (lines == this.lines && first == this.first && last == this.last) return;
+		this.lines = lines;
+		this.first = first;
+		this.last = last;
+		layoutCount++;
+
+		//give each word its range
+		vertexCount = 0;
+		cornerCount = 0;
+		for(int l = first; l < last; l++) {
+			for(Word w : lines[l]) {
+				w.arenaOffset = vertexCount;
+				w.arenaLength = w.vertexCount();
+				vertexCount += w.arenaLength;
+				cornerCount += w.triangleCount()*3;
+			}
+		}
+
+		//grow the buffers if the lines don't fit
+		if (vertexCount > capacity) {
+			capacity = Math.max(vertexCount, capacity*2);
+			vertices = allocate(capacity*STRIDE*4).asFloatBuffer();
+			logger.debug("Grew the text arena to " + size()/1024 + "KB.");
+		}
+		if (cornerCount > indices.capacity()) {
+			indices = allocate(Math.max(cornerCount, indices.capacity()*2)*4).asIntBuffer();
+			logger.debug("Grew the text arena to " + size()/1024 + "KB.");
+		}
+
+		//the triangles of each glyph, from the word's first vertex
+		int c = 0;
+		for(int l = first; l < last; l++) {
+			for(Word w : lines[l]) {
+				int base = w.arenaOffset;
+				for(GlyphMesh glyph : w.glyphs) {
+					for(int j = 0; j < glyph.indices.length; j++)
+						indices.put(c++, base + glyph.index(j));
+					base += glyph.vertexCount();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Allocate a direct buffer.
+	 * @param bytes number of bytes
+	 * @return the buffer, in the native byte order
+	 */
+	static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Write the vertices of a word, as it was last deformed.
+	 * <p>A fully transparent word only has its opacity cleared, since it
+	 * isn't deformed.</p>
+	 * @param w the word, in the lines laid out
+	 */
+	public void write(Word w) {
+		final FloatBuffer out = vertices;
+		int o = w.arenaOffset*STRIDE;
+		if (w.opacity == 0) {
+			for(int v = 0; v < w.arenaLength; v++, o += STRIDE)
+				out.put(o+4, 0);
+			return;
+		}
+
+		final float ox = w.position.x;
+		final float oy = w.position.y;
+		final float opacity = w.opacity;
+		final float[] x = w.restX;
+		final float[] y = w.tessY;
+		final float[] z = w.tessZ;
+		for(int v = 0; v < w.arenaLength; v++) {
+			out.put(o++, ox + x[v]);
+			out.put(o++, oy);
+			out.put(o++, y[v]);
+			out.put(o++, z[v]);
+			out.put(o++, opacity);
+		}
+	}
+
+	/**
+	 * Get the number of bytes of the buffers.
+	 * @return number of bytes
+	 */
+	public int size() { return capacity*STRIDE*4 + indices.capacity()*4; }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import processing.core.PApplet;
+
+/**
+ * Pages of background text compiled ahead of time for a screen size.
+ * <p>A bundle holds the font size of every line, and the words of every page
+ * with their positions, bounds and glyph meshes, so that the app can skip the
+ * font size search, the layout and the tessellation at startup. It is written
+ * by {@link PageBundleCompiler} and memory-mapped when the app starts. Pages
+ * and glyphs are only decoded when they are first needed.</p>
+ * <p>The pages are written one at a time as they are built, each after the
+ * glyphs it uses first, and the index of the pages and glyphs comes last,
+ * so the compiler never holds more than one page.</p>
+ * <p>A bundle is only used if it was compiled from the same texts, font and
+ * settings (see {@link #contentHash(File)}) and for the same screen size,
+ * and if it is as long as its header says. It is written to a temporary
+ * file and moved in place once complete, so a compile that stops half way
+ * never leaves a bundle that opens, and a compile while the app runs
+ * doesn't change the file the app has mapped.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class PageBundle {
+
+	static Logger logger = Logger.getLogger(PageBundle.class);
+
+	static final int MAGIC = 0x52534e4b;	//"RSNK"
+	static final int VERSION = 3;			//version of the file format
+
+	ByteBuffer buffer;		//mapped content of the bundle
+	int width, height;		//screen size the pages were laid out for
+	int[][] fontSizes;		//font size of each line of each text
+	int[] pageOffsets;		//position of each page in the bundle
+	int[] glyphOffsets;		//position of each glyph mesh in the bundle
+	GlyphMesh[] glyphs;		//glyph meshes, decoded when first needed
+
+	/**
+	 * Constructor.
+	 * @param buffer mapped content of the bundle, positioned after the magic number and version
+	 */
+	protected PageBundle(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Open a compiled bundle.
+	 * @param file bundle file
+	 * @param hash expected content hash
+	 * @param width expected screen width
+	 * @param height expected screen height
+	 * @return the bundle, or null if it's missing or doesn't match
+	 * @throws IOException if the file can't be read
+	 */
+	public static PageBundle open(File file, byte[] hash, int width, int height) throws IOException {
+		if (!file.exists()) {
+			logger.info("No page bundle at " + file + ", pages will be laid out at runtime.");
+			return null;
+		}
+
+		//map the whole file, the mapping stays valid after the channel is closed
+		ByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			logger.info("Page bundle " + file + " is not a bundle of this version, pages will be laid out at runtime.");
+			return null;
+		}
+
+		//a bundle cut short would fail later when its pages are read
+		int length = buffer.getInt();
+		if (length != buffer.capacity()) {
+			logger.warn("Page bundle " + file + " is " + buffer.capacity() + " bytes instead of " + length +
+					", pages will be laid out at runtime.");
+			return null;
+		}
+
+		PageBundle bundle = new PageBundle(buffer);
+		byte[] bundleHash = new byte[buffer.getShort()];
+		buffer.get(bundleHash);
+		bundle.width = buffer.getInt();
+		bundle.height = buffer.getInt();
+		int indexOffset = buffer.getInt();
+
+		if (!Arrays.equals(hash, bundleHash)) {
+			logger.info("Page bundle " + file + " was compiled from other texts or settings, pages will be laid out at runtime.");
+			return null;
+		}
+		if (bundle.width != width || bundle.height != height) {
+			logger.info("Page bundle " + file + " was compiled for " + bundle.width + "x" + bundle.height +
+					", not " + width + "x" + height + ", pages will be laid out at runtime.");
+			return null;
+		}
+
+		if (indexOffset < buffer.position() || indexOffset >= length) {
+			logger.warn("Page bundle " + file + " has its index outside of the file, pages will be laid out at runtime.");
+			return null;
+		}
+		int dataStart = buffer.position();
+		buffer.position(indexOffset);
+		bundle.readIndex();
+		if (!bundle.checkIndex(dataStart, indexOffset)) {
+			logger.warn("Page bundle " + file + " has pages or glyphs outside of the file, pages will be laid out at runtime.");
+			return null;
+		}
+		return bundle;
+	}
+
+	/**
+	 * Read the font sizes and the position of the pages and glyphs.
+	 */
+	protected void readIndex() {
+		fontSizes = new int[buffer.getInt()][];
+		for(int i = 0; i < fontSizes.length; i++) {
+			fontSizes[i] = new int[buffer.getInt()];
+			for(int j = 0; j < fontSizes[i].length; j++)
+				fontSizes[i][j] = buffer.getInt();
+		}
+
+		pageOffsets = new int[fontSizes.length];
+		for(int i = 0; i < pageOffsets.length; i++)
+			pageOffsets[i] = buffer.getInt();
+
+		glyphOffsets = new int[buffer.getInt()];
+		for(int i = 0; i < glyphOffsets.length; i++)
+			glyphOffsets[i] = buffer.getInt();
+		glyphs = new GlyphMesh[glyphOffsets.length];
+	}
+
+	/**
+	 * Check that the pages and glyphs start between the header and the index.
+	 * @param start position after the header
+	 * @param end position of the index
+	 * @return true if they do
+	 */
+	protected boolean checkIndex(int start, int end) {
+		for(int offset : pageOffsets)
+			if (offset < start || offset >= end) return false;
+		for(int offset : glyphOffsets)
+			if (offset < start || offset >= end) return false;
+		return true;
+	}
+
+	/**
+	 * Get the number of texts in the bundle.
+	 * @return number of texts
+	 */
+	public int textCount() { return fontSizes.length; }
+
+	/**
+	 * Get the font size of a line.
+	 * @param index index of the text
+	 * @param line index of the line
+	 * @return font size
+	 */
+	public int fontSize(int index, int line) { return fontSizes[index][line]; }
+
+	/**
+	 * Read a page from the bundle.
+	 * <p>This can be called from the page preparation threads.</p>
+	 * @param parent parent Processing applet of the words
+	 * @param index index of the text
+	 * @return the page
+	 */
+	public Page page(PApplet parent, int index) {
+		//each read gets its own position in the shared buffer
+		ByteBuffer in = buffer.duplicate();
+		in.position(pageOffsets[index]);
+
+		Page page = new Page(index, in.getInt());
+		for(int i = 0; i < page.lineCount(); i++) {
+			page.wordSpacing[i] = in.getFloat();
+
+			Word[] words = new Word[in.getInt()];
+			for(int w = 0; w < words.length; w++) {
+				char[] value = new char[in.getShort()];
+				for(int c = 0; c < value.length; c++)
+					value[c] = in.getChar();
+
+				GlyphMesh[] wordGlyphs = new GlyphMesh[value.length];
+				for(int c = 0; c < value.length; c++)
+					wordGlyphs[c] = glyph(in.getInt());
+
+				Word word = new Word(parent, new String(value), wordGlyphs);
+				word.opacity = 0;
+				word.position.set(in.getFloat(), in.getFloat(), 0);
+				word.bounds.setBounds(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+				words[w] = word;
+			}
+			page.words[i] = words;
+		}
+		return page;
+	}
+
+	/**
+	 * Get a glyph mesh, decoding it the first time it's needed.
+	 * @param id index of the glyph in the bundle
+	 * @return the glyph mesh
+	 */
+	protected synchronized GlyphMesh glyph(int id) {
+		if (glyphs[id] != null) return glyphs[id];
+
+		ByteBuffer in = buffer.duplicate();
+		in.position(glyphOffsets[id]);
+
+		GlyphMesh glyph = new GlyphMesh(in.getChar(), in.getFloat());
+		boolean compact = in.get() != 0;
+		int vertexCount = in.getInt();
+		if (compact) {
+			glyph.originX = in.getFloat();
+			glyph.originY = in.getFloat();
+			glyph.stepX = in.getFloat();
+			glyph.stepY = in.getFloat();
+			glyph.quantized = new short[vertexCount*2];
+			in.asShortBuffer().get(glyph.quantized);
+			in.position(in.position() + glyph.quantized.length*2);
+		}
+		else {
+			glyph.vertices = new float[vertexCount*3];
+			in.asFloatBuffer().get(glyph.vertices);
+			in.position(in.position() + glyph.vertices.length*4);
+		}
+		glyph.indices = new short[in.getInt()];
+		in.asShortBuffer().get(glyph.indices);
+
+		glyphs[id] = glyph;
+		return glyph;
+	}
+
+	/**
+	 * Write a bundle.
+	 * <p>Each page is written as soon as the iterator returns it, so it can be
+	 * built in next() and released once written. The bundle is written next
+	 * to the file and moved in place once it is complete.</p>
+	 * @param file bundle file
+	 * @param hash content hash of the texts and settings
+	 * @param width screen width the pages were laid out for
+	 * @param height screen height the pages were laid out for
+	 * @param fontSizes font size of each line of each text
+	 * @param pages page of each text
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(File file, byte[] hash, int width, int height, int[][] fontSizes, Iterator<Page> pages) throws IOException {
+		//number the glyph meshes used by the words, shared meshes are written once
+		Map<GlyphMesh, Integer> glyphIds = new IdentityHashMap<GlyphMesh, Integer>();
+		int[] glyphOffsets = new int[16];
+		int[] pageOffsets = new int[fontSizes.length];
+		Arrays.fill(pageOffsets, -1);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		boolean written = false;
+		try {
+			raf.setLength(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(raf.getChannel())));
+
+			//the length and the position of the index are filled in at the end
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);
+			out.writeShort(hash.length);
+			out.write(hash);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(0);
+
+			while(pages.hasNext()) {
+				Page page = pages.next();
+
+				//write the glyphs the page uses first
+				for(Word[] line : page.words) {
+					for(Word word : line) {
+						for(GlyphMesh glyph : word.glyphs) {
+							if (glyphIds.containsKey(glyph)) continue;
+							int id = glyphIds.size();
+							glyphIds.put(glyph, id);
+							if (id == glyphOffsets.length)
+								glyphOffsets = Arrays.copyOf(glyphOffsets, glyphOffsets.length*2);
+							glyphOffsets[id] = out.size();
+							writeGlyph(out, glyph);
+						}
+					}
+				}
+
+				pageOffsets[page.index] = out.size();
+				writePage(out, page, glyphIds);
+			}
+
+			for(int i = 0; i < pageOffsets.length; i++)
+				if (pageOffsets[i] < 0) throw new IOException("The page of text " + i + " was not written.");
+
+			//the index of the pages and glyphs
+			int indexOffset = out.size();
+			out.writeInt(fontSizes.length);
+			for(int[] sizes : fontSizes) {
+				out.writeInt(sizes.length);
+				for(int size : sizes)
+					out.writeInt(size);
+			}
+			for(int offset : pageOffsets)
+				out.writeInt(offset);
+			out.writeInt(glyphIds.size());
+			for(int i = 0; i < glyphIds.size(); i++)
+				out.writeInt(glyphOffsets[i]);
+			out.flush();
+
+			raf.seek(8);
+			raf.writeInt(out.size());
+			raf.seek(4 + 4 + 4 + 2 + hash.length + 4 + 4);
+			raf.writeInt(indexOffset);
+			written = true;
+		} finally {
+			raf.close();
+			if (!written) tmp.delete();
+		}
+
+		//replace the old bundle, the app keeps the one it mapped until it restarts
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write a page.
+	 * @param out output stream
+	 * @param page the page
+	 * @param glyphIds index of each glyph mesh in the bundle
+	 * @throws IOException if the page can't be written
+	 */
+	protected static void writePage(DataOutputStream out, Page page, Map<GlyphMesh, Integer> glyphIds) throws IOException {
+		out.writeInt(page.lineCount());
+		for(int i = 0; i < page.lineCount(); i++) {
+			out.writeFloat(page.wordSpacing[i]);
+			out.writeInt(page.words[i].length);
+			for(Word word : page.words[i]) {
+				out.writeShort(word.value.length());
+				out.writeChars(word.value);
+				for(GlyphMesh glyph : word.glyphs)
+					out.writeInt(glyphIds.get(glyph));
+
+				out.writeFloat(word.position.x);
+				out.writeFloat(word.position.y);
+				out.writeInt(word.bounds.x);
+				out.writeInt(word.bounds.y);
+				out.writeInt(word.bounds.width);
+				out.writeInt(word.bounds.height);
+			}
+		}
+	}
+
+	/**
+	 * Write a glyph mesh.
+	 * @param out output stream
+	 * @param glyph the glyph mesh
+	 * @throws IOException if the glyph can't be written
+	 */
+	protected static void writeGlyph(DataOutputStream out, GlyphMesh glyph) throws IOException {
+		out.writeChar(glyph.value);
+		out.writeFloat(glyph.advance);
+		out.writeByte(glyph.quantized != null ? 1 : 0);
+		out.writeInt(glyph.vertexCount());
+		if (glyph.quantized != null) {
+			out.writeFloat(glyph.originX);
+			out.writeFloat(glyph.originY);
+			out.writeFloat(glyph.stepX);
+			out.writeFloat(glyph.stepY);
+			for(short q : glyph.quantized)
+				out.writeShort(q);
+		}
+		else {
+			for(float v : glyph.vertices)
+				out.writeFloat(v);
+		}
+		out.writeInt(glyph.indices.length);
+		for(short i : glyph.indices)
+			out.writeShort(i);
+	}
+
+	/**
+	 * Get the hash of everything the compiled pages depend on, other than the
+	 * screen size: the texts, the font file, and the text and tessellation
+	 * settings.
+	 * @param corpus the texts
+	 * @param dataFolder folder of the font files
+	 * @return the hash
+	 * @throws IOException if a text or font file can't be read
+	 */
+	public static byte[] contentHash(TextCorpus corpus, File dataFolder) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("No SHA-1 digest available", e);
+		}
+
+		StringBuilder settings = new StringBuilder();
+		settings.append(VERSION).append('|');
+		settings.append(Rattlesnakes.TEXT_FONT).append('|');
+		settings.append(corpus).append('|');
+		for(float[] spacings : Rattlesnakes.TEXT_LINES_SPACINGS)
+			settings.append(Arrays.toString(spacings));
+		settings.append('|').append(Rattlesnakes.TEXT_VERTICAL_MARGIN);
+		settings.append('|').append(Rattlesnakes.TEXT_HORIZONTAL_MARGIN);
+		settings.append('|').append(GlyphMesh.TESSELLATOR_DETAIL);
+		settings.append('|').append(GlyphMesh.TESSELLATOR_TOLERANCE);
+		settings.append('|').append(GlyphMesh.TESSELLATOR_MAX_DETAIL);
+		settings.append('|').append(GlyphMesh.COMPACT);
+		digest.update(settings.toString().getBytes("UTF-8"));
+
+		digestFile(digest, new File(dataFolder, Rattlesnakes.TEXT_FONT));
+		corpus.digest(digest);
+
+		return digest.digest();
+	}
+
+	/**
+	 * Add the content of a file to a digest.
+	 * @param digest the digest
+	 * @param file the file
+	 * @throws IOException if the file can't be read
+	 */
+	protected static void digestFile(MessageDigest digest, File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) != -1)
+				digest.update(buf, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/**
+ * Compiles the background texts into a page bundle for a screen size.
+ * <p>Run it from the app's folder, with the screen width and height, and
+ * optionally the config file to use (config.properties by default). The
+ * bundle is written to the file set by the text.bundle property. It uses
+ * the same texts, font and settings as the app, so it has to be compiled
+ * again when any of them change (the app falls back to laying out the
+ * pages itself until then).</p>
+ * <pre>java net.obxlabs.rattlesnakes.PageBundleCompiler 1920 1080</pre>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class PageBundleCompiler {
+
+	static Logger logger = Logger.getLogger(PageBundleCompiler.class);
+
+	/**
+	 * Compile the page bundle.
+	 * @param args screen width, screen height and optional config file
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: PageBundleCompiler <width> <height> [config file]");
+			System.exit(1);
+		}
+
+		//configure logger
+		PropertyConfigurator.configure("logging.properties");
+
+		//load the same properties as the app
+		Rattlesnakes.loadConfig(args.length > 2 ? args[2] : "config.properties");
+		if (Rattlesnakes.TEXT_BUNDLE == null || Rattlesnakes.TEXT_BUNDLE.isEmpty()) {
+			logger.error("The text.bundle property is not set, there is nowhere to write the pages.");
+			System.exit(1);
+		}
+
+		long start = System.nanoTime();
+
+		//lay out the pages like the app would, without opening a window
+		final Rattlesnakes sketch = new Rattlesnakes();
+		sketch.sketchPath = System.getProperty("user.dir");
+		sketch.width = Integer.valueOf(args[0]);
+		sketch.height = Integer.valueOf(args[1]);
+		sketch.readTexts();
+		sketch.setupFonts();
+		sketch.layoutTexts();
+
+		final int pageCount = sketch.corpus.size();
+		int[][] fontSizes = new int[pageCount][];
+		for(int i = 0; i < pageCount; i++)
+			fontSizes[i] = sketch.textLayout(i).fontSizes;
+
+		//build each page when the bundle is ready to write it
+		Iterator<Page> pages = new Iterator<Page>() {
+			int next = 0;
+			public boolean hasNext() { return next < pageCount; }
+			public Page next() {
+				if (next >= pageCount) throw new NoSuchElementException();
+				return sketch.buildPage(next++);
+			}
+			public void remove() { throw new UnsupportedOperationException(); }
+		};
+
+		//write the bundle
+		File file = new File(Rattlesnakes.TEXT_BUNDLE);
+		try {
+			PageBundle.write(file, PageBundle.contentHash(sketch.corpus, new File(sketch.dataPath(""))),
+					sketch.width, sketch.height, fontSizes, pages);
+		} catch (IOException e) {
+			logger.error("Could not write page bundle " + file + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		logger.info("Compiled " + pageCount + " pages for " + sketch.width + "x" + sketch.height +
+				" into " + file + " (" + file.length()/1024 + "KB) in " + (System.nanoTime()-start)/1000000 + "ms.");
+		System.exit(0);
+	}
+}
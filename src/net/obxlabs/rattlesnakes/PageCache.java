@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded, least-recently-used cache of prepared pages.
+ * <p>Pages are built on demand, and the page that follows the one
+ * on screen can be prepared in the background ahead of time.
+ * When the cache is full, the least recently used page is dropped.</p>
+ * <p>Pages are prepared on a fork-join pool, so the words of a page
+ * can also be built in parallel.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class PageCache {
+
+	static Logger logger = Logger.getLogger(PageCache.class);
+
+	//parent sketch, which knows how to build pages
+	Rattlesnakes p;
+
+	int capacity;							//maximum number of prepared pages, at least 3
+	Map<Integer, Future<Page>> pages;		//prepared (or preparing) pages in access order
+	ForkJoinPool pool;						//background threads preparing the pages
+
+	/**
+	 * Constructor.
+	 * @param parent parent sketch
+	 * @param capacity maximum number of prepared pages to keep (at least 3)
+	 */
+	public PageCache(Rattlesnakes parent, int capacity) {
+		this.p = parent;
+		//the changing page, the new page and the one prefetched after it are all used at once
+		this.capacity = capacity < 3 ? 3 : capacity;
+
+		//keep the pages in access order so that the eldest is the least recently used
+		this.pages = new LinkedHashMap<Integer, Future<Page>>(this.capacity+1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Future<Page>> eldest) {
+				if (size() <= PageCache.this.capacity) return false;
+
+				//drop the page, and stop preparing it if it's not done yet
+				eldest.getValue().cancel(false);
+				logger.debug("Dropped page " + eldest.getKey() + " from the cache.");
+				return true;
+			}
+		};
+
+		//use all the cores, but stay behind the animation thread
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+					public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+						ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {};
+						t.setName("page-prep-" + t.getPoolIndex());
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				}, null, false);
+	}
+
+	/**
+	 * Get a prepared page, building it if needed.
+	 * <p>This blocks until the page is ready.</p>
+	 * @param index index of the page
+	 * @return the page
+	 */
+	public Page get(int index) {
+		Future<Page> future = request(index);
+
+		//if the page is already prepared, we're done
+		if (future.isDone()) return result(index, future);
+
+		//if not, then we have to wait for it
+		long start = System.nanoTime();
+		Page page = result(index, future);
+		logger.debug("Waited " + (System.nanoTime()-start)/1000000 + "ms for page " + index + ".");
+		return page;
+	}
+
+	/**
+	 * Start preparing a page in the background if it's not already cached.
+	 * @param index index of the page
+	 */
+	public void prefetch(int index) {
+		request(index);
+	}
+
+	/**
+	 * Check if a page is prepared and ready to be used.
+	 * @param index index of the page
+	 * @return true if the page is ready
+	 */
+	public synchronized boolean isReady(int index) {
+		Future<Page> future = pages.get(index);
+		return future != null && future.isDone();
+	}
+
+	/**
+	 * Replace a page with one that was prepared elsewhere.
+	 * <p>If the old page is still being prepared, it is cancelled.</p>
+	 * @param index index of the page
+	 * @param page the new page
+	 */
+	public synchronized void replace(final int index, final Page page) {
+		FutureTask<Page> future = new FutureTask<Page>(new Callable<Page>() {
+			public Page call() { return page; }
+		});
+		future.run();
+		
+		Future<Page> old = pages.put(index, future);
+		if (old != null) old.cancel(false);
+	}
+
+	/**
+	 * Drop the pages that are not in a set of pages.
+	 * <p>Pages that are still being prepared are cancelled.</p>
+	 * @param indices indices of the pages to keep
+	 */
+	public synchronized void retain(Collection<Integer> indices) {
+		Iterator<Map.Entry<Integer, Future<Page>>> it = pages.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, Future<Page>> entry = it.next();
+			if (!indices.contains(entry.getKey())) {
+				entry.getValue().cancel(false);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Rasterize the words in view of a page that don't have an image yet,
+	 * in the background.
+	 * <p>Does nothing while the page's images are already being made.</p>
+	 * @param page the page
+	 */
+	public void prepareImages(final Page page) {
+		if (page.images != null && !page.images.isDone()) return;
+		final int first = page.viewFirst();
+		final int last = page.viewLast();
+		page.images = pool.submit(new Runnable() {
+			public void run() { WordImage.prepare(page.words, first, last); }
+		});
+	}
+
+	/**
+	 * Stop preparing pages.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Get the future of a page, and queue it for preparation if it's not cached.
+	 * @param index index of the page
+	 * @return the future page
+	 */
+	protected synchronized Future<Page> request(final int index) {
+		Future<Page> future = pages.get(index);
+		if (future == null || future.isCancelled()) {
+			future = pool.submit(new Callable<Page>() {
+				public Page call() {
+					long start = System.nanoTime();
+					Page page = p.buildPage(index);
+					if (logger.isDebugEnabled() && page != null) {
+						long time = System.nanoTime()-start;
+						int words = page.totalWords();
+						logger.debug("Prepared page " + index + " in " + time/1000000 + "ms (" +
+								page.triangleCount() + " triangles, " +
+								(words == 0 ? 0 : time/1000/words) + "us per word).");
+					}
+					return page;
+				}
+			});
+			pages.put(index, future);
+		}
+		return future;
+	}
+
+	/**
+	 * Get the result of a future page.
+	 * @param index index of the page
+	 * @param future future page
+	 * @return the page
+	 */
+	protected Page result(int index, Future<Page> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while preparing page " + index, e);
+		} catch (ExecutionException e) {
+			//forget about the failed page so that it can be tried again
+			synchronized(this) { pages.remove(index); }
+			throw new RuntimeException("Could not prepare page " + index, e.getCause());
+		}
+	}
+}
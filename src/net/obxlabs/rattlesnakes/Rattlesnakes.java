@@ -12,16 +12,21 @@
 
 package net.obxlabs.rattlesnakes;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -56,6 +61,8 @@ public class Rattlesnakes extends PApplet {
 	//constants
 	static final int FPS = 60;
 	static final int START_TEXT_INDEX = 5;
+	static final int TEXT_LAYOUT_CACHE = 16;	//number of text layouts kept in memory
+	static final int TEXT_FONT_CACHE = 64;		//number of text font sizes kept in memory, besides the ones of the layouts
 	
 	//properties editable in the config.properties file
 	static boolean FULLSCREEN;				//true to open in fullscreen
@@ -67,11 +74,19 @@ public class Rattlesnakes extends PApplet {
 	static String SNAKE_FILE;				//name of snake texts file
 	static int SNAKE_COLOR;					//snake color
 	static String[] TEXT_FILES;				//text files for main background text
+	static String TEXT_CORPUS;				//folder or file of the background text pages (empty to use the text files)
 	static float[][] TEXT_LINES_SPACINGS;	//line spacings for each line and text
+	static int TEXT_PAGE_CACHE;				//number of prepared pages kept in memory
+	static String TEXT_BUNDLE;				//compiled page bundle file (empty to lay out pages at runtime)
+	static boolean TEXT_RELOAD;				//true to reload edited texts and line spacings while running
+	static String CONFIG_FILE;				//config file the properties were loaded from
 	static String TEXT_FONT;				//name of main background text font
 	static float TEXT_VERTICAL_MARGIN;		//top margin between edge and text
 	static float TEXT_HORIZONTAL_MARGIN;	//left and right margins between edges and text
+	static float TEXT_SCROLL_SPEED;			//speed at which pages taller than the screen scroll (pixels per frame)
+	static int TEXT_VIEWPORT_MARGIN;		//distance around the screen where lines are kept in view
 	static int TEXT_COLOR;					//text color
+	static String TEXT_RENDER_MODE;			//how the words are deformed and drawn (cpu, hybrid, batch, arena or shader)
 	static float TEXT_FADEIN_SPEED;			//speed at which the words fade in
 	static float TEXT_FADEOUT_SPEED;		//speed at which the words fade out
 	static int UNBITABLE_MARGIN;			//number of pixels were words can't be bit
@@ -118,14 +133,26 @@ public class Rattlesnakes extends PApplet {
 	String[] snakeLines;					//lines of text for the snakes
 	boolean firstBite;						//true until the first bite
 	ArrayList<Snake> rippleSnakes;			//array of snakes that caused a ripple
-	ArrayList<Ripple> ripples;				//array of active ripples
+	RipplePool ripples;						//active ripples, up to the maximum
+	DeformKernel deformKernel;				//deforms the words with the ripples
+	DeformPool deformPool;					//updates and deforms the words of a frame on all the cores
+	WordShader wordShader;					//deforms the words on the graphics card, null to deform them on the CPU
+	WordBatch wordBatch;					//draws the deformed words of a page in one call, null to draw each on its own
+	ArenaRenderer arenaRenderer;			//draws the deformed words from the text arena, null to draw them as shapes
+	PageArena textArena;					//triangles of the words in view, null unless drawn from an arena
+	boolean textImages;						//true to draw the words at rest as textured quads
+	int textShapeCount;						//number of shapes the texts were drawn with on the last frame
+	float textDrawMillis;					//time taken to deform and submit the texts on the last frame (ms)
 	
 	int textIndex;							//index of the current background text
-	String[][] textLines;					//lines of the background texts
-	Word[][][] textWords;					//words of the background texts
-	HashMap<Integer, PFont> textFonts;		//fonts of the background lines
-	int[][] textFontSizes;					//fonts of the background lines
-	float[][] textWordSpacing;				//word spacing offset for the background lines
+	TextCorpus corpus;						//pages of the background texts
+	PageCache pages;						//prepared pages of the background texts
+	PageBundle bundle;						//compiled pages, null if missing or out of date
+	Map<Integer, PFont> textFonts;			//fonts of the background lines, by size, the most recently used ones
+	PFont tmpFont;							//font used to calculate the size of the lines
+	Map<Integer, TextLayout> textLayouts;	//layout of the recently used background texts
+	TextReloader reloader;					//reloads edited texts, null if disabled
+	float scrollY;							//top of the viewport on the current page
 	int totalWordsSeen;						//counter of total word seen for a page
 	int totalWords;							//counter of total words in a page
 	
@@ -165,6 +192,9 @@ public class Rattlesnakes extends PApplet {
 			size(FRAME_WIDTH, FRAME_HEIGHT, OPENGL);
 		}
 
+		//time the startup once the renderer is created
+		long setupStart = System.nanoTime();
+
 		//disable the depth
 		hint(DISABLE_DEPTH_TEST);
 		hint(DISABLE_DEPTH_SORT);
@@ -202,11 +232,24 @@ public class Rattlesnakes extends PApplet {
 		//read the text lines
 		readTexts();
 		
+		//open the compiled pages if they match the texts and screen
+		openBundle();
+		
 		//setup the fonts
 		setupFonts();
 		
+		//lay out the background texts
+		layoutTexts();
+		
 		//setup the background texts
 		setupTexts();
+		logger.info("Texts ready in " + (System.nanoTime()-setupStart)/1000000 + "ms.");
+		
+		//watch the texts for changes
+		if (TEXT_RELOAD) {
+			reloader = new TextReloader(this);
+			reloader.start();
+		}
 		
 		//setup audio
 		setupAudio();
@@ -223,6 +266,7 @@ public class Rattlesnakes extends PApplet {
 		//start audio
 		soundManager.ambient(0).setVolume(0);
 		soundManager.fadeInAndRepeatAmbient(0, AMBIENT_VOLUME_START, 5000);
+		logger.info("Set up in " + (System.nanoTime()-setupStart)/1000000 + "ms.");
 	}
 
 	/**
@@ -232,105 +276,301 @@ public class Rattlesnakes extends PApplet {
 	{
 		//stop the sounds manager
 		soundManager.stop();
+		
+		//stop preparing pages
+		if (pages != null) pages.shutdown();
+		
+		//stop the threads deforming the words
+		if (deformPool != null) deformPool.shutdown();
+		
+		//stop watching the texts
+		if (reloader != null) reloader.stop();
 
 		//call overridden super method
 		super.exit();
 	}
 	
 	/**
-	 * Read text lines.
+	 * Open the background texts.
+	 * <p>The lines of a text are only read when it is laid out.</p>
 	 */
 	public void readTexts() {
-		textLines = new String[TEXT_FILES.length][];
+		try {
+			corpus = TextCorpus.open(this);
+		} catch (IOException e) {
+			logger.error("Could not open text corpus " + TEXT_CORPUS + ", using the text files instead: " + e.getMessage());
+			corpus = new TextCorpus.Files(this, TEXT_FILES);
+		}
+		logger.info("Opened " + corpus.size() + " texts from " + corpus + ".");
+	}
+	
+	/**
+	 * Open the compiled page bundle, if there is one that matches
+	 * the current texts, settings and screen size.
+	 */
+	public void openBundle() {
+		bundle = null;
+		if (TEXT_BUNDLE == null || TEXT_BUNDLE.isEmpty()) return;
 		
-		//read the lines of each text
-		for(int i = 0; i < TEXT_FILES.length; i++)
-			//read the lines from the text file
-			textLines[i] = loadStrings(TEXT_FILES[i]);
+		try {
+			long start = System.nanoTime();
+			bundle = PageBundle.open(new File(TEXT_BUNDLE), PageBundle.contentHash(corpus, new File(dataPath(""))), width, height);
+			if (bundle != null)
+				logger.info("Opened page bundle " + TEXT_BUNDLE + " in " + (System.nanoTime()-start)/1000000 + "ms.");
+		} catch (IOException e) {
+			logger.warn("Could not open page bundle " + TEXT_BUNDLE + ": " + e.getMessage());
+		}
 	}
 	
 	/**
 	 * Create and setup the bitmap fonts necessary to display the texts.
+	 * <p>When the pages are compiled, the line sizes come from the bundle.
+	 * The fonts of all the texts are created at once, unless the corpus is
+	 * streamed, in which case only the first pages are read and the fonts of
+	 * the others are added when they are laid out.</p>
 	 */
 	public void setupFonts() {
-		textFonts = new HashMap<Integer, PFont>();
-		textFontSizes = new int[TEXT_FILES.length][];
-
-		//create map of font size to characters
-		HashMap<Integer, String> charsets = new HashMap<Integer, String>();
-		
-		//get the characters we need for each font size
-		for(int i = 0; i < TEXT_FILES.length; i++) {
-			//create the tmp font used to calculate font sizes
-			//we base our calculations on this font and then create the
-			//font closest to the size needed for a line of text to fill
-			//the width of the screen
-			PFont tmpFont = createFont(TEXT_FONT, 72);
-
-			//make space for fonts sizes
-			textFontSizes[i] = new int[textLines[i].length];
+		long start = System.nanoTime();
+		FontCache.open();
+		textFonts = new LinkedHashMap<Integer, PFont>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
 			
-			//for each line, calculate the needed font size and split in words
-			for(int j = 0; j < textLines[i].length; j++) {
-				//set the temp font
-				textFont(tmpFont);
-				
-				//find the best size that fits the width of the screen
-				//by trying the temp font at different sizes
-				int tmpSize = 24;
-				do {
-					textSize(tmpSize+=1);
-				} while(textWidth(textLines[i][j]) < width-TEXT_HORIZONTAL_MARGIN*2);
-
-				//we found the closest size, so create the font for that line
-				//and start using it for calculations
-				textFontSizes[i][j] = tmpSize-=1;
-				
-				//get the set of characters for this size
-				String charset = charsets.get(tmpSize);
-				//if it's the first time we get this size
-				//we won't have a charset, so make an empty one
-				if (charset == null)
-					charset = "";
-				
-				//add characters from the line that are not in the charset
-				for(int k = 0; k < textLines[i][j].length(); k++) {
-					char c = textLines[i][j].charAt(k);
-					if (charset.indexOf(c) == -1) charset += c;
-				}
-				
-				//save for later
-				charsets.put(tmpSize, charset);
+			protected boolean removeEldestEntry(Map.Entry<Integer, PFont> eldest) {
+				return size() > TEXT_FONT_CACHE;
 			}
+		};
+
+		//create the tmp font used to calculate font sizes
+		//we base our calculations on this font and then create the
+		//font closest to the size needed for a line of text to fill
+		//the width of the screen
+		tmpFont = createFont(TEXT_FONT, 72);
+		
+		//map of font size to the characters we need at that size
+		HashMap<Integer, BitSet> charsets = new HashMap<Integer, BitSet>();
+		for(int index : startingTexts()) {
+			String[] lines = textLines(index);
+			addCharsets(charsets, lines, fontSizes(index, lines));
 		}
 		
 		//go through the font sizes and create a font for
 		//each but only for the characters we saw in the texts
-		Iterator<Integer> it = charsets.keySet().iterator();
-		while(it.hasNext()) {
-			Integer tmpSize = it.next();
-			String charset = charsets.get(tmpSize);
+		addFonts(charsets);
+		
+		logger.info("Created " + textFonts.size() + " text fonts in " + (System.nanoTime()-start)/1000000 + "ms.");
+	}
+	
+	/**
+	 * Get the texts read at startup.
+	 * @return indices of the texts, starting with the first one shown
+	 */
+	int[] startingTexts() {
+		int count = corpus.isStreamed() ? Math.min(TEXT_PAGE_CACHE, corpus.size()) : corpus.size();
+		int[] indices = new int[count];
+		for(int i = 0; i < count; i++)
+			indices[i] = (firstTextIndex()+i) % corpus.size();
+		return indices;
+	}
+	
+	/**
+	 * Get the index of the first text shown.
+	 * @return index of the text
+	 */
+	int firstTextIndex() {
+		return Math.min(START_TEXT_INDEX, corpus.size()-1);
+	}
+	
+	/**
+	 * Read the lines of a text.
+	 * @param index index of the text
+	 * @return the lines, empty if the text can't be read
+	 */
+	String[] textLines(int index) {
+		String[] lines = corpus.lines(index);
+		return lines == null ? new String[0] : lines;
+	}
+	
+	/**
+	 * Get the font size of each line of a text.
+	 * @param index index of the text
+	 * @param lines lines of the text
+	 * @return font size of each line
+	 */
+	int[] fontSizes(int index, String[] lines) {
+		//find the best size of each line that fits the width of the screen,
+		//unless it was already found when compiling the pages
+		if (bundle != null) {
+			int[] sizes = new int[lines.length];
+			for(int j = 0; j < lines.length; j++)
+				sizes[j] = bundle.fontSize(index, j);
+			return sizes;
+		}
+		return fitFontSizes(lines);
+	}
+	
+	/**
+	 * Find the font size that makes each line of a text fill the width of the screen.
+	 * @param lines lines of the text
+	 * @return font size of each line
+	 */
+	int[] fitFontSizes(String[] lines) {
+		//the tmp font creates its glyphs when they are measured, one thread at a time
+		synchronized(tmpFont) {
+			return TextLayout.fitFontSizes(tmpFont, lines, width-TEXT_HORIZONTAL_MARGIN*2);
+		}
+	}
+	
+	/**
+	 * Add the characters of each line of a text to the set of its size.
+	 * @param charsets map of font size to the characters needed at that size
+	 * @param lines lines of the text
+	 * @param fontSizes font size of each line
+	 */
+	static void addCharsets(Map<Integer, BitSet> charsets, String[] lines, int[] fontSizes) {
+		for(int j = 0; j < lines.length; j++) {
+			BitSet charset = charsets.get(fontSizes[j]);
+			if (charset == null) {
+				charset = new BitSet();
+				charsets.put(fontSizes[j], charset);
+			}
+			for(int k = 0; k < lines[j].length(); k++)
+				charset.set(lines[j].charAt(k));
+		}
+	}
+	
+	/**
+	 * Create the fonts needed to set characters at some sizes.
+	 * <p>A font that already has the characters is kept. If some are missing,
+	 * the font is created again with its own characters and the new ones, so
+	 * that the texts laid out with it before still measure the same. Only the
+	 * most recently used sizes are kept, the layouts hold on to their own.</p>
+	 * @param charsets map of font size to the characters needed at that size
+	 * @return the fonts, by size
+	 */
+	Map<Integer, PFont> addFonts(Map<Integer, BitSet> charsets) {
+		Map<Integer, PFont> fonts = new HashMap<Integer, PFont>();
+		synchronized(textFonts) {
+			for(Map.Entry<Integer, BitSet> entry : charsets.entrySet()) {
+				BitSet charset = entry.getValue();
+				PFont font = textFonts.get(entry.getKey());
+				if (font != null) {
+					boolean missing = false;
+					for(int c = charset.nextSetBit(0); c >= 0 && !missing; c = charset.nextSetBit(c+1))
+						missing = font.getGlyph((char)c) == null;
+					if (!missing) {
+						fonts.put(entry.getKey(), font);
+						continue;
+					}
+					
+					for(int g = 0; g < font.getGlyphCount(); g++)
+						charset.set(font.getGlyph(g).value);
+				}
+				
+				char[] chars = new char[charset.cardinality()];
+				for(int c = charset.nextSetBit(0), k = 0; c >= 0; c = charset.nextSetBit(c+1))
+					chars[k++] = (char)c;
+				
+				PFont pfont = FontCache.createFont(this, TEXT_FONT, entry.getKey(), true, chars);
+				textFonts.put(entry.getKey(), pfont);
+				fonts.put(entry.getKey(), pfont);
+			}
+		}
+		return fonts;
+	}
+	
+	/**
+	 * Lay out the first background texts with their fonts.
+	 * <p>The other texts are laid out when their pages are prepared,
+	 * and only the most recently used layouts are kept.</p>
+	 */
+	public void layoutTexts() {
+		final int capacity = Math.max(TEXT_LAYOUT_CACHE, TEXT_PAGE_CACHE);
+		textLayouts = new LinkedHashMap<Integer, TextLayout>(capacity+1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
 			
-			PFont pfont = createFont(TEXT_FONT, tmpSize, true, charset.toCharArray());
-			textFonts.put(tmpSize, pfont);
+			protected boolean removeEldestEntry(Map.Entry<Integer, TextLayout> eldest) {
+				return size() > capacity;
+			}
+		};
+		
+		long start = System.nanoTime();
+		int[] indices = startingTexts();
+		for(int index : indices)
+			textLayout(index);
+		logger.info("Laid out " + indices.length + " texts in " + (System.nanoTime()-start)/1000 + "us.");
+	}
+	
+	/**
+	 * Get the layout of a text, laying it out if needed.
+	 * @param index index of the text
+	 * @return the layout
+	 */
+	public TextLayout textLayout(int index) {
+		synchronized(textLayouts) {
+			TextLayout layout = textLayouts.get(index);
+			if (layout == null) {
+				String[] lines = textLines(index);
+				layout = layoutText(index, lines, fontSizes(index, lines),
+						index < TEXT_LINES_SPACINGS.length ? TEXT_LINES_SPACINGS[index] : null);
+				textLayouts.put(index, layout);
+			}
+			return layout;
 		}
 	}
 	
+	/**
+	 * Lay out a text, adding the fonts it needs.
+	 * @param index index of the text
+	 * @param lines lines of the text
+	 * @param fontSizes font size of each line
+	 * @param lineSpacings spacing under each line, can be shorter than the lines or null
+	 * @return the layout
+	 */
+	public TextLayout layoutText(int index, String[] lines, int[] fontSizes, float[] lineSpacings) {
+		HashMap<Integer, BitSet> charsets = new HashMap<Integer, BitSet>();
+		addCharsets(charsets, lines, fontSizes);
+		
+		return TextLayout.layout(index, lines, fontSizes, addFonts(charsets),
+				width, TEXT_VERTICAL_MARGIN, TEXT_HORIZONTAL_MARGIN, lineSpacings);
+	}
+	
 	/**
 	 * Setup the background texts.
 	 */
 	public void setupTexts() {
-		textWords = new Word[TEXT_FILES.length][][];
-		textWordSpacing = new float[TEXT_FILES.length][];
+		//create the word arrays to store touched words
+		biteableWords = new ArrayList<Word>();
+		//skippedWords = new ArrayList<Word>();
 
-		//load each text
-		for(int i = 0; i < TEXT_FILES.length; i++)
-			setupText(i);
+		//the words are rasterized with the pages when drawn from images
+		textImages = TEXT_RENDER_MODE.equals("hybrid");
+		
+		//pages are prepared on demand and only a few are kept in memory
+		pages = new PageCache(this, TEXT_PAGE_CACHE);
 		
 		//set to start with first text
-		textIndex = START_TEXT_INDEX;
+		textIndex = firstTextIndex();
 		totalWords = totalWordsForText(textIndex);
 		totalWordsSeen = 0;
+		
+		//prepare the next page while the first one is on screen
+		prefetchNextText();
+	}
+	
+	/**
+	 * Get the prepared page of a text, building it if needed.
+	 * @param index index of the text
+	 * @return the page
+	 */
+	public Page page(int index) {
+		return pages.get(index);
+	}
+	
+	/**
+	 * Start preparing the page that follows the current text in the background.
+	 */
+	public void prefetchNextText() {
+		pages.prefetch((textIndex+1) % corpus.size());
 	}
 	
 	/**
@@ -339,69 +579,89 @@ public class Rattlesnakes extends PApplet {
 	 * @return
 	 */
 	public int totalWordsForText(int index) {
-		int count = 0;
-		for(Word[] words : textWords[index])
-			count += words.length;
-		return count;
+		return page(index).totalWords();
 	}
 	
 	/**
-	 * Setup a specified text from the list of text files.
-	 * @param index index of the text to setup
+	 * Build the page of a specified text from the corpus.
+	 * <p>This only uses the prepared fonts and layouts and does not touch
+	 * the sketch's drawing state, so it can run on a background thread.
+	 * When it runs on a fork-join pool, the lines are built in parallel.</p>
+	 * @param index index of the text to build
+	 * @return the page, or null if the index is out of bounds
 	 */
-	public void setupText(int index) {
+	public Page buildPage(int index) {
 		//make sure the index is within bounds
-		if (index < 0) return;
-		if (index >= TEXT_FILES.length) return;
-			
-		//words and word spacings
-		textWords[index] = new Word[textLines[index].length][];
-		textWordSpacing[index] = new float[textLines[index].length];
+		if (index < 0) return null;
+		if (index >= corpus.size()) return null;
+		
+		//if the page was compiled, read it from the bundle
+		if (bundle != null) {
+			Page page = bundle.page(this, index);
+			page.scrollTo(0, height, TEXT_VIEWPORT_MARGIN);
+			if (textImages) WordImage.prepare(page.words, page.viewFirst(), page.viewLast());
+			return page;
+		}
 		
-		//create the word arrays to store touched words
-		biteableWords = new ArrayList<Word>();
-		//skippedWords = new ArrayList<Word>();
+		TextLayout layout = textLayout(index);
+		return buildPage(layout, layout.fonts);
+	}
+	
+	/**
+	 * Build the page of a text from its layout.
+	 * @param layout layout of the text
+	 * @param fonts fonts of the text's lines, by size
+	 * @return the page
+	 */
+	public Page buildPage(final TextLayout layout, final Map<Integer, PFont> fonts) {
+		//words and word spacings
+		final Page page = new Page(layout.index, layout.lineCount());
+		
+		//create a task to build the words of each line
+		ArrayList<RecursiveAction> lineTasks = new ArrayList<RecursiveAction>(layout.lineCount());
+		for(int i = 0; i < layout.lineCount(); i++) {
+			final int line = i;
+			lineTasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() { buildLine(page, layout, fonts, line); }
+			});
+		}
 		
-		//start position words at the set margin
-		float x = TEXT_HORIZONTAL_MARGIN;
-		float y = TEXT_VERTICAL_MARGIN;
+		//build the lines, in parallel when we can
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(lineTasks);
+		else
+			for(RecursiveAction task : lineTasks)
+				task.invoke();
 		
-		//for each line, calculate the needed font size and split in words
-		for(int i = 0; i < textLines[index].length; i++) {
-			//set the font and font size
-			textSize(textFontSizes[index][i]);		
-			textFont(textFonts.get(textFontSizes[index][i]));
-
-			//get the width of the line using that font
-			float lineWidth = textWidth(textLines[index][i]);
-			
-			//the lines are rarely exactly the width of the screen,
-			//so space the words 
-			String[] wordStrings = textLines[index][i].split(" ");
-			textWordSpacing[index][i] = 0;
-			if (wordStrings.length > 1)
-				textWordSpacing[index][i] = (width-TEXT_HORIZONTAL_MARGIN*2-lineWidth)/(float)(wordStrings.length-1) + textWidth(" ");
-			
-			//create the word objects
-			textWords[index][i] = new Word[wordStrings.length];
-			for(int w = 0; w < wordStrings.length; w++) {
-				textWords[index][i][w] = new Word(this, wordStrings[w]);
-				textWords[index][i][w].opacity = 0;
-				textWords[index][i][w].position.set(x, y + textAscent(), 0);								
-				textWords[index][i][w].bounds.setBounds((int)(x - textWordSpacing[index][i]/2),
-														(int)(y - ((TEXT_LINES_SPACINGS.length > index && TEXT_LINES_SPACINGS[index].length > i) ? TEXT_LINES_SPACINGS[index][i]/2+1 : 0)),
-														(int)(textWidth(wordStrings[w]) + textWordSpacing[index][i]),
-														(int)((textAscent()+textDescent()) + ((TEXT_LINES_SPACINGS.length > index && TEXT_LINES_SPACINGS[index].length > i) ? TEXT_LINES_SPACINGS[index][i]+2 : 0)));
-
-				//move the cursor to the next word's position
-				x += textWidth(wordStrings[w]) + textWordSpacing[index][i];
-			}
-			
-			//move the cursor to the start of the next line
-			x = TEXT_HORIZONTAL_MARGIN;
-			y += textAscent() + textDescent() +
-					((TEXT_LINES_SPACINGS.length > index && TEXT_LINES_SPACINGS[index].length > i) ? TEXT_LINES_SPACINGS[index][i] : 0);
+		//tessellate the lines of the first screen, and rasterize them if drawn from images
+		page.scrollTo(0, height, TEXT_VIEWPORT_MARGIN);
+		if (textImages) WordImage.prepare(page.words, page.viewFirst(), page.viewLast());
+		return page;
+	}
+	
+	/**
+	 * Build the words of a line of a page.
+	 * @param page the page being built
+	 * @param layout layout of the page's text
+	 * @param fonts fonts of the text's lines, by size
+	 * @param i index of the line
+	 */
+	void buildLine(Page page, TextLayout layout, Map<Integer, PFont> fonts, int i) {
+		//get the font of the line
+		PFont font = fonts.get(layout.fontSize(i));
+		page.wordSpacing[i] = layout.wordSpacing(i);
+		
+		//create the word objects
+		Word[] words = new Word[layout.wordCount(i)];
+		for(int w = 0; w < words.length; w++) {
+			Word word = new Word(this, layout.word(i, w), font);
+			word.opacity = 0;
+			word.position.set(layout.wordX(i, w), layout.baselineY(i), 0);
+			layout.bounds(i, w, word.bounds);
+			words[w] = word;
 		}
+		page.words[i] = words;
 	}
 	
 	/**
@@ -411,8 +671,14 @@ public class Rattlesnakes extends PApplet {
 		//read the snake lines from the text file
 		snakeLines = cleanStrings(loadStrings(SNAKE_FILE));
 				
-		//create the snake font
-		snakeFont = createFont(SNAKE_FONT, SNAKE_FONT_SIZE);
+		//create the snake font, with only the characters of the snakes so it can be cached
+		long start = System.nanoTime();
+		String charset = "";
+		for(String line : snakeLines)
+			for(int i = 0; i < line.length(); i++)
+				if (charset.indexOf(line.charAt(i)) == -1) charset += line.charAt(i);
+		snakeFont = FontCache.createFont(this, SNAKE_FONT, SNAKE_FONT_SIZE, true, charset.toCharArray());
+		logger.info("Created snake font in " + (System.nanoTime()-start)/1000000 + "ms.");
 				
 		//create the snakes
 		snakes = new Snake[4];
@@ -458,7 +724,23 @@ public class Rattlesnakes extends PApplet {
 		
 		//init the ripples caused by the snakes
 		rippleSnakes = new ArrayList<Snake>(4);
-		ripples = new ArrayList<Ripple>(4);
+		ripples = new RipplePool(RipplePool.CAPACITY, RipplePool.MERGE_DISTANCE);
+
+		//add up the ripples on a grid over the screen and the lines around it, if set
+		RippleField field = null;
+		if (RippleField.CELL_SIZE > 0)
+			field = new RippleField(-TEXT_VIEWPORT_MARGIN, -TEXT_VIEWPORT_MARGIN,
+					width + 2*TEXT_VIEWPORT_MARGIN, height + 2*TEXT_VIEWPORT_MARGIN, RippleField.CELL_SIZE);
+		deformKernel = new DeformKernel(FastMath.ERROR, Word.RIPPLE_LOD, field);
+		deformPool = new DeformPool(DeformPool.THREADS);
+		if (TEXT_RENDER_MODE.equals("shader"))
+			wordShader = new WordShader(this);
+		else if (TEXT_RENDER_MODE.equals("batch"))
+			wordBatch = new WordBatch(this);
+		else if (TEXT_RENDER_MODE.equals("arena")) {
+			arenaRenderer = new ArenaRenderer(this);
+			textArena = new PageArena();
+		}
 	}
 	
 	/**
@@ -496,19 +778,45 @@ public class Rattlesnakes extends PApplet {
 		if (random(1.0f) < 0.5) bgSnake.reverse();		
 	}
 	
+	/**
+	 * Swap in reloaded texts.
+	 * <p>Only called between pages, so that the words on screen never
+	 * mix two versions of a text.</p>
+	 * @param reload the reloaded texts, or null if nothing changed
+	 */
+	void applyReload(TextReloader.Reload reload) {
+		if (reload == null) return;
+		
+		synchronized(textLayouts) {
+			//the compiled pages don't match the edited texts anymore
+			bundle = null;
+			corpus = reload.corpus;
+			TEXT_LINES_SPACINGS = reload.lineSpacings;
+			
+			//keep the layouts that were checked against the edited texts,
+			//the others are laid out again from the new corpus when needed
+			textLayouts.keySet().retainAll(reload.checked);
+			for(TextReloader.ReloadedText text : reload.texts)
+				textLayouts.put(text.layout.index, text.layout);
+		}
+		
+		//same for the pages
+		pages.retain(reload.checked);
+		for(TextReloader.ReloadedText text : reload.texts)
+			pages.replace(text.layout.index, text.page);
+		
+		logger.info("Swapped in " + reload.texts.size() + " reloaded texts, the corpus has " + corpus.size() + " texts.");
+	}
+	
 	/**
 	 * Setup the text changing animation.
 	 */
 	public void setupChangingOfTheTexts() {
 		//if the changing delays have never been initialized
-		//create an array that holds as many delays as the text page with most lines
-		if (textChangingDelays == null) {
-			int maxDelays = 0;
-			for(String[] lines : textLines)
-				if (lines.length > maxDelays)
-					maxDelays = lines.length;
-			textChangingDelays = new int[maxDelays];
-		}
+		//create an array that holds as many delays as the current page has lines,
+		//it grows when a page with more lines comes up
+		if (textChangingDelays == null)
+			textChangingDelays = new int[page(textIndex).lineCount()];
 		
 		//lock until the first touch
 		changingLock = true;
@@ -577,6 +885,9 @@ public class Rattlesnakes extends PApplet {
 		//update ripples
 		updateRipples();
 		
+		//scroll the current page if it's taller than the screen
+		updateScroll();
+		
 		//if it's not time, then handle touches on words
 		handleBitableWords();
 		handleVisibleWords();		
@@ -594,9 +905,16 @@ public class Rattlesnakes extends PApplet {
 			snakeBite();
 		}
 		
+		//take the ripples once for all the words of the frame, on both pages while changing
+		deformKernel.snapshot(ripples, textAscent());
+		
 		//draw the current background text
+		deformKernel.resetCounts();
+		textShapeCount = 0;
+		long textStart = System.nanoTime();
 		drawText(textIndex);
 		if (changing) drawText(changingText);
+		textDrawMillis = (System.nanoTime()-textStart)/1000000f;
 		
 		//draw the snakes
 		drawSnakes();
@@ -606,19 +924,23 @@ public class Rattlesnakes extends PApplet {
 		if (MENU) drawMenu();
 	}
 	
+	/**
+	 * Scroll the current page down, until its bottom reaches the bottom of the screen.
+	 */
+	public void updateScroll() {
+		Page page = page(textIndex);
+		float maxScroll = Math.max(0, page.height() + TEXT_VERTICAL_MARGIN - height);
+		scrollY = Math.min(scrollY + TEXT_SCROLL_SPEED, maxScroll);
+		page.scrollTo((int)scrollY, height, TEXT_VIEWPORT_MARGIN);
+	}
+	
 	/**
 	 * Update the ripples.
 	 */
 	public void updateRipples() {
 		//go through ripples and update them
 		//remove them when they are too big
-		Iterator<Ripple> it = ripples.iterator();
-		while(it.hasNext()) {
-			Ripple r = it.next();
-			r.update();
-			if (r.radius*r.radius > width*width+height*height)
-				it.remove();
-		}
+		ripples.update((float)Math.sqrt(width*width+height*height));
 		
 		//check if biting snakes have bit and need to cause their ripple
 		for(Snake s : snakes) {
@@ -660,14 +982,17 @@ public class Rattlesnakes extends PApplet {
 		//fade the words in and out in a wave based on when the changing animation started
 		long diff = millis() - lastChanging;
 		boolean done = true;
-		for(int l = 0; l < textWords[changingText].length; l++) {
+		//only the lines in view change, the others are out of sight
+		Page changingPage = page(changingText);
+		Word[][] changingWords = changingPage.words;
+		for(int l = changingPage.viewFirst(); l < changingPage.viewLast(); l++) {
 			//if we have reached the set delay for a line, start animation for the line
 			if (diff > textChangingDelays[l]) {
 				//calculate the word to fade in based on the time since the animation started
 				//TODO move the TEXT_CHANGE_SPEED into the config file
-				int i = (int)((diff-textChangingDelays[l])/textChangeSpeed*textWords[changingText][l].length);
-				for(int wIndex = 0; wIndex < textWords[changingText][l].length; wIndex++) {
-					Word word = textWords[changingText][l][wIndex];
+				int i = (int)((diff-textChangingDelays[l])/textChangeSpeed*changingWords[l].length);
+				for(int wIndex = 0; wIndex < changingWords[l].length; wIndex++) {
+					Word word = changingWords[l][wIndex];
 					//fade in the word reached by the animation at this point
 					//if it's already fading in, no need to ask twice
 					if (wIndex == i) {
@@ -712,16 +1037,25 @@ public class Rattlesnakes extends PApplet {
 			//set the next time the text is allowed to change
 			nextTextChange = millis() + TEXT_CHANGE_INTERVAL;
 
+			//swap in the texts that were edited since the last page
+			if (reloader != null) applyReload(reloader.take());
+			
 			//move to the next (and check if we reached the end)
-			if (++textIndex >= TEXT_FILES.length) {
+			if (++textIndex >= corpus.size()) {
 				firstBite = true;
 				changingLock = true;
 				textIndex = 0;
 			}
 			
+			//start the next page from its top
+			scrollY = 0;
+			
 			//reset word seen counter
 			totalWords = totalWordsForText(textIndex);
 			totalWordsSeen = 0;
+			
+			//prepare the following page while this one is on screen
+			prefetchNextText();
 		}
 
 		//return true when we are changing
@@ -734,8 +1068,11 @@ public class Rattlesnakes extends PApplet {
 	public void updateChangingDelays() {
 		//generate the random delays
 		int minDelay = Integer.MAX_VALUE;
+		int lineCount = page(textIndex).lineCount();
+		if (textChangingDelays.length < lineCount)
+			textChangingDelays = new int[lineCount];
 			
-		for(int i = 0; i < textWords[textIndex].length; i++) {
+		for(int i = 0; i < lineCount; i++) {
 			//changingDelays.set(i, delay);
 			textChangingDelays[i] = rand.nextInt()%1000;
 			if (textChangingDelays[i] < minDelay) minDelay = textChangingDelays[i];
@@ -768,7 +1105,7 @@ public class Rattlesnakes extends PApplet {
 			soundManager.fadeAmbient(1, AMBIENT_VOLUME_END, TEXT_CHANGE_INTERVAL, false);
 		}
 		//when moving from the last to the first screen
-		else if (textIndex == TEXT_FILES.length-1) {
+		else if (textIndex == corpus.size()-1) {
 			//fade in the first ambient sound
 			soundManager.fadeInAndRepeatAmbient(0, AMBIENT_VOLUME_START, 30000);
 			//fade out the second ambient sound
@@ -959,7 +1296,7 @@ public class Rattlesnakes extends PApplet {
 	 * @param y
 	 */
 	public void addRipple(float x, float y) {
-		ripples.add(new Ripple(x, y, 10 + rand.next(4)));
+		ripples.add(x, y, 10 + rand.next(4));
 	}
 	
 	/**
@@ -1021,15 +1358,18 @@ public class Rattlesnakes extends PApplet {
 		//find the line the word might be on
 		//go through the lines and when the bounding box of the first word
 		//of a line is passed the y position, the previous line was the one
+		//(only the lines in view are on screen)
+		Page page = page(textIndex);
+		Word[][] words = page.words;
 		int lineIndex = 0;
-		for(lineIndex = 0; lineIndex < textWords[textIndex].length; lineIndex++) {
-			//if (textWords[textIndex][lineIndex].length == 0) continue;
-			if (textWords[textIndex][lineIndex][0].bounds.y > y)
+		for(lineIndex = page.viewFirst(); lineIndex < page.viewLast(); lineIndex++) {
+			//if (words[lineIndex].length == 0) continue;
+			if (words[lineIndex][0].bounds.y > y)
 				break;
 		}	
 		--lineIndex;
 		
-		if (lineIndex == -1) return;
+		if (lineIndex < page.viewFirst()) return;
 		
 		//check if we are within the bitable margin
 		if (x < UNBITABLE_MARGIN || x > width-UNBITABLE_MARGIN) bite = false;
@@ -1037,7 +1377,7 @@ public class Rattlesnakes extends PApplet {
 
 		//make sure that we're not between lines by checking that
 		//the word actually contain the x,y position
-		for(Word w : textWords[textIndex][lineIndex]) {
+		for(Word w : words[lineIndex]) {
 			if (w.bounds.contains(x, y)) {
 				//if we want the word to be bitable
 				if (bite) {
@@ -1063,6 +1403,7 @@ public class Rattlesnakes extends PApplet {
 	
 	/**
 	 * Draw a background text.
+	 * <p>The deformation kernel must already have the ripples of the frame.</p>
 	 * @param index index of the text to draw
 	 */
 	public void drawText(int index) {
@@ -1071,14 +1412,61 @@ public class Rattlesnakes extends PApplet {
 		noStroke();
 		textAlign(LEFT);
 
-		//loop through lines and their words and draw each
-		for(int l = 0; l < textWords[index].length; l++) {
-			//update and draw all words
-			for(Word w : textWords[index][l]) {
-				w.update();
-				w.draw(ripples);
+		Page page = page(index);
+		Word[][] words = page.words;
+		
+		//update the words and let the shader deform them
+		if (wordShader != null) {
+			wordShader.begin(ripples, textAscent());
+			for(int l = page.viewFirst(); l < page.viewLast(); l++)
+				for(Word w : words[l])
+					w.update();
+			textShapeCount += 2*wordShader.draw(words, page.viewFirst(), page.viewLast(), TEXT_COLOR);
+			wordShader.end();
+			return;
+		}
+		
+		//update and deform the words of the lines in view, on all the cores,
+		//and write them to the page's arena if they are drawn from one
+		PageArena arena = null;
+		if (arenaRenderer != null) {
+			arena = textArena;
+			arena.layout(words, page.viewFirst(), page.viewLast());
+		}
+		deformPool.deform(words, page.viewFirst(), page.viewLast(), deformKernel, true, arena);
+		
+		//then draw them in two calls, the shadows then the words
+		if (arena != null) {
+			arenaRenderer.draw(arena, TEXT_COLOR);
+			textShapeCount += 2;
+			return;
+		}
+		
+		//or in one stream
+		if (wordBatch != null) {
+			wordBatch.begin();
+			for(int l = page.viewFirst(); l < page.viewLast(); l++)
+				for(Word w : words[l])
+					wordBatch.add(w);
+			wordBatch.end();
+			textShapeCount++;
+			return;
+		}
+		
+		//or each word on its own, the shadow and the word,
+		//as quads for the words at rest if they are drawn from images
+		boolean missing = false;
+		for(int l = page.viewFirst(); l < page.viewLast(); l++) {
+			for(Word w : words[l]) {
+				if (textImages && !w.deformed) w.drawImage();
+				else w.draw();
+				if (textImages && w.image == null) missing = true;
+				if (w.opacity != 0) textShapeCount += 2;
 			}
 		}
+		
+		//the words scrolled into view are drawn as meshes until their images are made
+		if (missing) pages.prepareImages(page);
 	}
 	
 	/**
@@ -1111,6 +1499,14 @@ public class Rattlesnakes extends PApplet {
 				" / " + (Runtime.getRuntime().totalMemory()/1048576) + "mb", 10, 24*2);
 		text("TUIO server: " + tuioServerAddr, 10, 24*3);
 		text("text: " + (textIndex+1), 10, 24*4);
+		text("triangles: " + page(textIndex).triangleCount() + " (" + GlyphCache.size() + " shared glyphs)", 10, 24*5);
+		text("lines: " + page(textIndex).viewFirst() + "-" + page(textIndex).viewLast() + " of " + page(textIndex).lineCount() +
+				" (scroll " + (int)scrollY + ")", 10, 24*6);
+		text("words: " + deformKernel.deformedCount() + " deformed, " + deformKernel.culledCount() + " culled (ripples: " +
+				deformKernel.vertexRippleCount() + " per vertex, " + deformKernel.patchRippleCount() + " as patches)", 10, 24*7);
+		text("ripples: " + ripples.size() + " of " + ripples.capacity() + " (" + ripples.mergedCount() + " merged, " +
+				ripples.evictedCount() + " replaced)", 10, 24*8);
+		text("text shapes: " + textShapeCount + " (" + TEXT_RENDER_MODE + ", " + nf(textDrawMillis, 1, 2) + "ms)", 10, 24*9);
 
 		//draw debug text to make it easier to adjust the text
 		if (BG_TEXT) {
@@ -1118,15 +1514,18 @@ public class Rattlesnakes extends PApplet {
 			noStroke();
 			textAlign(LEFT);
 
-			//loop through lines and draw all words as semi-transparent
-			for(int l = 0; l < textWords[textIndex].length; l++) {
-				textFont(textFonts.get(textFontSizes[textIndex][l]));
+			//loop through lines in view and draw all words as semi-transparent
+			Page page = page(textIndex);
+			Word[][] words = page.words;
+			for(int l = page.viewFirst(); l < page.viewLast(); l++) {
+				textFont(textLayout(textIndex).font(l));
+				deformKernel.setAscent(textAscent());
 				
-				for(Word w : textWords[textIndex][l]) {
+				for(Word w : words[l]) {
 					w.update();
 					float savedOpacity = w.opacity;
 					w.opacity = 0.5f;
-					w.draw(ripples);
+					w.draw(deformKernel);
 					w.opacity = savedOpacity;
 				}
 			}
@@ -1136,8 +1535,10 @@ public class Rattlesnakes extends PApplet {
 		if (BOUNDS) {
 			noFill();
 			stroke(0, 50);
-			for(int lineIndex = 0; lineIndex < textWords[textIndex].length; lineIndex++) {
-				Word[] line = textWords[textIndex][lineIndex]; 
+			Page page = page(textIndex);
+			Word[][] words = page.words;
+			for(int lineIndex = page.viewFirst(); lineIndex < page.viewLast(); lineIndex++) {
+				Word[] line = words[lineIndex]; 
 				for(int wordIndex = 0; wordIndex < line.length; wordIndex++) {
 					Word w = line[wordIndex];
 					rect(w.bounds.x, w.bounds.y, w.bounds.width, w.bounds.height);
@@ -1376,15 +1777,17 @@ public class Rattlesnakes extends PApplet {
 		else return 2;
 	}
 	
-	public static void main(String _args[]) {
-		//configure logger
-		PropertyConfigurator.configure("logging.properties");
-		
+	/**
+	 * Load the editable properties from a config file.
+	 * @param file path of the config file
+	 */
+	public static void loadConfig(String file) {
 		//load properties
 		Properties props = new Properties();
 		try {
 	        //load a properties file
-			props.load(new FileInputStream("config.properties"));
+			props.load(new FileInputStream(file));
+			CONFIG_FILE = file;
 	 
 	    	//get the standard properties
 			FULLSCREEN = (Boolean.valueOf(props.getProperty("fullscreen", "true")));
@@ -1395,25 +1798,37 @@ public class Rattlesnakes extends PApplet {
 			SNAKE_FONT_SIZE = (Integer.valueOf(props.getProperty("snake.font.size", "40")));
 			SNAKE_FILE = props.getProperty("snake.file", "snakes.txt");
 			TEXT_FILES = props.getProperty("text.files", "body.txt").split(",");
+			TEXT_CORPUS = props.getProperty("text.corpus", "");
+			TEXT_PAGE_CACHE = (Integer.valueOf(props.getProperty("text.page.cache", "3")));
+			TEXT_BUNDLE = props.getProperty("text.bundle", "");
+			FontCache.FOLDER = props.getProperty("font.cache", "");
+			FontCache.FILES = (Integer.valueOf(props.getProperty("font.cache.files", "64")));
 			
 			//get the line spacing
-			//each line spacing is separate by a comma,
-			//and each set of line spacing of a text is separated by a semi-colon
-			String[] textLineSpacings = props.getProperty("text.line.spacings", "0").split(";");
-			TEXT_LINES_SPACINGS = new float[textLineSpacings.length][];
-			for(int i = 0; i < TEXT_LINES_SPACINGS.length; i++) {
-				String[] lineSpacings = textLineSpacings[i].split(",");
-				TEXT_LINES_SPACINGS[i] = new float[lineSpacings.length];
-				for(int j = 0; j < TEXT_LINES_SPACINGS[i].length; j++)
-					TEXT_LINES_SPACINGS[i][j] = Float.valueOf(lineSpacings[j]);
-			}
+			TEXT_LINES_SPACINGS = parseLineSpacings(props.getProperty("text.line.spacings", "0"));
+			TEXT_RELOAD = (Boolean.valueOf(props.getProperty("text.reload", "false")));
+			
+			GlyphMesh.TESSELLATOR_DETAIL = (Float.valueOf(props.getProperty("text.tessellation.detail", "3")));
+			GlyphMesh.TESSELLATOR_TOLERANCE = (Float.valueOf(props.getProperty("text.tessellation.tolerance", "0")));
+			GlyphMesh.COMPACT = (Boolean.valueOf(props.getProperty("text.mesh.compact", "false")));
+			FastMath.ERROR = (Float.valueOf(props.getProperty("text.deform.error", "0.01")));
+			DeformKernel.BLOCKED = (Boolean.valueOf(props.getProperty("text.deform.blocked", "false")));
+			Word.RIPPLE_LOD = (Float.valueOf(props.getProperty("text.ripple.lod", "2")));
+			RippleField.CELL_SIZE = (Float.valueOf(props.getProperty("text.ripple.field", "0")));
+			DeformPool.THREADS = (Integer.valueOf(props.getProperty("text.deform.threads", "0")));
+			RipplePool.CAPACITY = (Integer.valueOf(props.getProperty("text.ripple.max", "8")));
+			RipplePool.MERGE_DISTANCE = (Float.valueOf(props.getProperty("text.ripple.merge", "50")));
 			
 			TEXT_FONT = "fonts"+java.io.File.separator+props.getProperty("text.font", "Arial")+".ttf";
 			TEXT_VERTICAL_MARGIN = (Float.valueOf(props.getProperty("text.vertical.margin", "20")));
 			TEXT_HORIZONTAL_MARGIN = (Float.valueOf(props.getProperty("text.horizontal.margin", "20")));
+			TEXT_SCROLL_SPEED = (Float.valueOf(props.getProperty("text.scroll.speed", "0.5")));
+			TEXT_VIEWPORT_MARGIN = (Integer.valueOf(props.getProperty("text.viewport.margin", "100")));
 			TEXT_FADEIN_SPEED = (Float.valueOf(props.getProperty("text.fadein.speed", "0.05")));
 			TEXT_FADEOUT_SPEED = (Float.valueOf(props.getProperty("text.fadeout.speed", "0.01")));
 			TEXT_COLOR = unhex(props.getProperty("text.color", "B4000000"));
+			TEXT_RENDER_MODE = props.getProperty("text.render.mode", "cpu").trim();
+			WordImage.SCALE = (Float.valueOf(props.getProperty("text.image.scale", "1")));
 			UNBITABLE_MARGIN = (Integer.valueOf(props.getProperty("unbitable.margin", "0")));
 			//WORDS_BEFORE_BITE = (Integer.valueOf(props.getProperty("words.before.bite", "0")));
 			SNAKE_BITE_STRENGTH_MULT = (Float.valueOf(props.getProperty("snake.bite.strength.multiplier", "7.69")));
@@ -1471,6 +1886,33 @@ public class Rattlesnakes extends PApplet {
 			logger.error("Exception occurred when trying to load config file.");
 			ex.printStackTrace();
 	    }
+	}
+
+	/**
+	 * Parse the line spacings of the texts.
+	 * <p>Each line spacing is separated by a comma,
+	 * and each set of line spacings of a text is separated by a semi-colon.</p>
+	 * @param value value of the text.line.spacings property
+	 * @return line spacings for each line and text
+	 */
+	static float[][] parseLineSpacings(String value) {
+		String[] textLineSpacings = value.split(";");
+		float[][] spacings = new float[textLineSpacings.length][];
+		for(int i = 0; i < spacings.length; i++) {
+			String[] lineSpacings = textLineSpacings[i].split(",");
+			spacings[i] = new float[lineSpacings.length];
+			for(int j = 0; j < spacings[i].length; j++)
+				spacings[i][j] = Float.valueOf(lineSpacings[j]);
+		}
+		return spacings;
+	}
+
+	public static void main(String _args[]) {
+		//configure logger
+		PropertyConfigurator.configure("logging.properties");
+		
+		//load properties
+		loadConfig("config.properties");
 			
 		//launch
 		if (FULLSCREEN)
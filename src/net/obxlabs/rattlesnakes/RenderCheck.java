@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import processing.core.PApplet;
+
+/**
+ * Checks that the render modes draw the same page as the CPU.
+ * <p>Run it from the app's folder, optionally with the config file to use
+ * (config.properties by default). The words of the first text are laid out
+ * like in DeformBenchmark, deformed by RIPPLES ripples, and drawn once
+ * deformed on the CPU and drawn each on its own, which is the reference,
+ * then once with each of the other render modes. The check fails, with an
+ * exit code of 1, if more than MAX_PIXELS of the pixels of a mode are more
+ * than MAX_LEVEL away from the reference on any channel. Smoothing is
+ * turned off so the edges of the triangles are the same for all modes.</p>
+ * <p>It needs an OpenGL context but no screen, and can run with Mesa's
+ * software renderer on a virtual X server:</p>
+ * <pre>LIBGL_ALWAYS_SOFTWARE=1 xvfb-run -a -s "-screen 0 1920x1080x24" java net.obxlabs.rattlesnakes.RenderCheck</pre>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class RenderCheck extends PApplet {
+
+	private static final long serialVersionUID = 1L;
+
+	static Logger logger = Logger.getLogger(RenderCheck.class);
+
+	static final int WIDTH = 1920;				//width of the page, the same as DeformBenchmark
+	static final int HEIGHT = 1080;				//height of the page, the same as DeformBenchmark
+	static final int RIPPLES = 4;				//number of ripples
+	static final int MAX_LEVEL = 48;			//largest difference of a channel for a pixel to be the same (0-255)
+	static final float MAX_PIXELS = 0.005f;		//largest fraction of the pixels that may differ
+
+	Word[][] lines;				//the words by line
+	List<Ripple> ripples;		//the ripples
+	DeformKernel kernel;		//deforms the words on the CPU
+	WordShader wordShader;		//deforms the words on the graphics card
+	WordBatch wordBatch;		//draws the deformed words in one stream
+	DeformPool deformPool;		//deforms the words for the batch and the arena, on the animation thread
+	PageArena arena;			//triangles of the words, deformed on the CPU
+	ArenaRenderer arenaRenderer;	//draws the arena
+	int failures;				//number of modes that failed
+
+	/**
+	 * Lay out the words.
+	 */
+	public void setup() {
+		size(WIDTH, HEIGHT, OPENGL);
+		hint(DISABLE_DEPTH_TEST);
+		hint(DISABLE_DEPTH_SORT);
+		noSmooth();
+
+		try {
+			lines = DeformBenchmark.lines(DeformBenchmark.layoutWords(this));
+		} catch (Exception e) {
+			logger.error("Could not lay out the words: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		ripples = DeformBenchmark.ripples(RIPPLES);
+		kernel = new DeformKernel(0, 0);
+		kernel.snapshot(ripples, DeformBenchmark.ASCENT);
+		wordShader = new WordShader(this);
+		wordBatch = new WordBatch(this);
+		deformPool = new DeformPool(1);
+		arena = new PageArena();
+		arenaRenderer = new ArenaRenderer(this);
+		noLoop();
+	}
+
+	/**
+	 * Draw the page with each mode and compare it to the reference.
+	 */
+	public void draw() {
+		int[] reference = render("cpu");
+		check("shader", reference);
+		check("batch", reference);
+		check("arena", reference);
+
+		if (failures > 0) {
+			logger.error(failures + " render modes drew a different page than the CPU.");
+			System.exit(1);
+		}
+		logger.info("All the render modes drew the same page as the CPU.");
+		System.exit(0);
+	}
+
+	/**
+	 * Draw the page with a mode and compare it to the reference.
+	 * @param mode render mode
+	 * @param reference pixels of the page drawn by the CPU
+	 */
+	void check(String mode, int[] reference) {
+		int[] drawn = render(mode);
+		int differ = 0;
+		for(int i = 0; i < drawn.length; i++)
+			if (difference(drawn[i], reference[i]) > MAX_LEVEL) differ++;
+
+		float fraction = (float)differ/drawn.length;
+		String message = String.format("%-8s %d pixels differ (%.3f%%)", mode, differ, fraction*100);
+		if (fraction > MAX_PIXELS) {
+			logger.error(message + ", more than " + MAX_PIXELS*100 + "%.");
+			failures++;
+		}
+		else logger.info(message + ".");
+	}
+
+	/**
+	 * Draw the page with a mode.
+	 * @param mode render mode
+	 * @return pixels of the page
+	 */
+	int[] render(String mode) {
+		background(Rattlesnakes.BG_COLOR);
+		fill(Rattlesnakes.TEXT_COLOR);
+		noStroke();
+
+		if (mode.equals("shader")) {
+			wordShader.begin(ripples, DeformBenchmark.ASCENT);
+			wordShader.draw(lines, 0, lines.length, Rattlesnakes.TEXT_COLOR);
+			wordShader.end();
+		}
+		else if (mode.equals("batch")) {
+			deformPool.deform(lines, 0, lines.length, kernel, false, null);
+			wordBatch.begin();
+			for(Word[] line : lines)
+				for(Word w : line)
+					wordBatch.add(w);
+			wordBatch.end();
+		}
+		else if (mode.equals("arena")) {
+			arena.layout(lines, 0, lines.length);
+			deformPool.deform(lines, 0, lines.length, kernel, false, arena);
+			arenaRenderer.draw(arena, Rattlesnakes.TEXT_COLOR);
+		}
+		else {
+			for(Word[] line : lines)
+				for(Word w : line)
+					w.draw(kernel);
+		}
+
+		loadPixels();
+		return pixels.clone();
+	}
+
+	/**
+	 * Get the largest difference between the channels of two colors.
+	 * @param a first color
+	 * @param b second color
+	 * @return largest difference, from 0 to 255
+	 */
+	static int difference(int a, int b) {
+		int max = 0;
+		for(int shift = 0; shift < 32; shift += 8)
+			max = Math.max(max, Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)));
+		return max;
+	}
+
+	/**
+	 * Run the check.
+	 * @param args optional config file
+	 */
+	public static void main(String[] args) {
+		//configure logger
+		PropertyConfigurator.configure("logging.properties");
+
+		//load the same properties as the app, and the text the benchmark lays out
+		String config = args.length > 0 ? args[0] : "config.properties";
+		Rattlesnakes.loadConfig(config);
+		try {
+			DeformBenchmark.loadConfig(config);
+		} catch (IOException e) {
+			logger.error("Could not read the config: " + e.getMessage());
+			System.exit(1);
+		}
+
+		PApplet.main(new String[] { RenderCheck.class.getName() });
+	}
+}
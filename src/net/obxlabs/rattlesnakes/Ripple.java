@@ -22,6 +22,8 @@ import processing.core.PVector;
  * $LastChangedBy$
  */
 public class Ripple {
+	static final float START_RADIUS = 100;	//radius of a new ripple
+	
 	PVector center;	//center location
 	float radius;	//radius
 	float speed;	//growth speed
@@ -33,9 +35,20 @@ public class Ripple {
 	 * @param s speed
 	 */
 	public Ripple(float x, float y, float s) {
-		center = new PVector(x, y, 0);
+		center = new PVector();
+		set(x, y, s);
+	}
+	
+	/**
+	 * Start the ripple over, at x,y.
+	 * @param x x coordinate of the center
+	 * @param y y coordinate of the center
+	 * @param s speed
+	 */
+	public void set(float x, float y, float s) {
+		center.set(x, y, 0);
 		speed = s;
-		radius = 100;
+		radius = START_RADIUS;
 	}
 	
 	/**
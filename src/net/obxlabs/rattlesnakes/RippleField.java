@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.Arrays;
+
+import processing.core.PApplet;
+
+/**
+ * Depth of all the ripples over the screen, on a coarse grid.
+ * <p>The waves of the ripples are added up once per frame at the corners of
+ * the grid's cells, only where each ripple's band reaches, and the vertices
+ * of the words read their depth from the grid with bilinear interpolation.
+ * The cost for the words stays the same however many ripples there are,
+ * and the cost of the grid only grows with the number of cells the ripples
+ * cover. The crest of the waves is a little rounder than when each vertex
+ * adds up the ripples itself.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class RippleField {
+
+	static float CELL_SIZE = 0;		//size of the cells (pixels), 0 to add up the ripples on each vertex instead
+
+	final float left, top;			//position of the top left corner of the grid
+	final float cellSize;			//size of the cells
+	final float invCellSize;		//one over the size of the cells
+	final int cols, rows;			//number of cells horizontally and vertically
+	final float[] depths;			//depth at each corner of the cells, row after row
+	final int stride;				//number of corners in a row
+
+	/**
+	 * Constructor.
+	 * @param left left side of the area covered by the grid
+	 * @param top top of the area covered by the grid
+	 * @param width width of the area covered by the grid
+	 * @param height height of the area covered by the grid
+	 * @param cellSize size of the cells
+	 */
+	public RippleField(float left, float top, float width, float height, float cellSize) {
+		this.left = left;
+		this.top = top;
+		this.cellSize = cellSize;
+		this.invCellSize = 1/cellSize;
+		this.cols = Math.max(1, (int)Math.ceil(width/cellSize));
+		this.rows = Math.max(1, (int)Math.ceil(height/cellSize));
+		this.stride = cols+1;
+		this.depths = new float[stride*(rows+1)];
+	}
+
+	/**
+	 * Add up the waves of the ripples on the grid.
+	 * @param rippleX horizontal center of each ripple
+	 * @param rippleY vertical center of each ripple
+	 * @param rippleRadius radius of each ripple
+	 * @param rippleCount number of ripples
+	 * @param fastMath tables of the wave, null to use the exact function
+	 */
+	public void update(float[] rippleX, float[] rippleY, float[] rippleRadius, int rippleCount, FastMath fastMath) {
+		Arrays.fill(depths, 0);
+
+		final float length = Word.RIPPLE_LENGTH;
+		for(int r = 0; r < rippleCount; r++) {
+			float cx = rippleX[r];
+			float cy = rippleY[r];
+			float radius = rippleRadius[r];
+			float outer = radius + length;
+			float inner = radius - length;
+
+			//go through the rows the ripple's band crosses
+			int firstRow = Math.max(0, (int)Math.ceil((cy-outer-top)*invCellSize));
+			int lastRow = Math.min(rows, (int)Math.floor((cy+outer-top)*invCellSize));
+			for(int row = firstRow; row <= lastRow; row++) {
+				float dy = top + row*cellSize - cy;
+				float dySq = dy*dy;
+
+				//the band covers the row from the outer circle, minus the inner circle
+				float outerX = (float)Math.sqrt(Math.max(0, outer*outer - dySq));
+				float innerX = inner > 0 && inner*inner > dySq ? (float)Math.sqrt(inner*inner - dySq) : 0;
+				if (innerX == 0)
+					addSpan(row, cx-outerX, cx+outerX, cx, dySq, radius, fastMath);
+				else {
+					addSpan(row, cx-outerX, cx-innerX, cx, dySq, radius, fastMath);
+					addSpan(row, cx+innerX, cx+outerX, cx, dySq, radius, fastMath);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the wave of a ripple to a span of a row.
+	 * @param row the row
+	 * @param from left of the span
+	 * @param to right of the span
+	 * @param cx horizontal center of the ripple
+	 * @param dySq squared vertical distance from the row to the center of the ripple
+	 * @param radius radius of the ripple
+	 * @param fastMath tables of the wave, null to use the exact function
+	 */
+	void addSpan(int row, float from, float to, float cx, float dySq, float radius, FastMath fastMath) {
+		int firstCol = Math.max(0, (int)Math.ceil((from-left)*invCellSize));
+		int lastCol = Math.min(cols, (int)Math.floor((to-left)*invCellSize));
+		final float length = Word.RIPPLE_LENGTH;
+		int i = row*stride + firstCol;
+		for(int col = firstCol; col <= lastCol; col++, i++) {
+			float dx = left + col*cellSize - cx;
+			float dist = (float)Math.sqrt(dx*dx + dySq) - radius;
+			if (dist < 0) dist *= -1;
+			if (dist >= length) continue;
+			if (fastMath != null)
+				depths[i] += fastMath.wave(dist);
+			else
+				depths[i] += Math.sin((dist/length)*Word.RIPPLE_CYCLES*2*PApplet.PI) *
+					Word.RIPPLE_AMPLITUDE * (1-dist/length);
+		}
+	}
+
+	/**
+	 * Add the depth of the grid to vertices.
+	 * <p>Vertices outside of the grid get the depth of its closest edge.</p>
+	 * @param x horizontal position of each vertex, relative to the origin
+	 * @param y vertical position of each vertex, relative to the origin
+	 * @param z depth of each vertex
+	 * @param count number of vertices
+	 * @param originX absolute horizontal position of the origin
+	 * @param originY absolute vertical position of the origin
+	 */
+	public void addTo(float[] x, float[] y, float[] z, int count, float originX, float originY) {
+		final float maxU = cols;
+		final float maxV = rows;
+		for(int v = 0; v < count; v++) {
+			float u = (originX + x[v] - left)*invCellSize;
+			float t = (originY + y[v] - top)*invCellSize;
+			if (u < 0) u = 0; else if (u > maxU) u = maxU;
+			if (t < 0) t = 0; else if (t > maxV) t = maxV;
+			int col = (int)u;
+			int row = (int)t;
+			if (col == cols) col--;
+			if (row == rows) row--;
+			u -= col;
+			t -= row;
+
+			int i = row*stride + col;
+			float upper = depths[i] + (depths[i+1]-depths[i])*u;
+			float lower = depths[i+stride] + (depths[i+stride+1]-depths[i+stride])*u;
+			z[v] += upper + (lower-upper)*t;
+		}
+	}
+
+	/**
+	 * Get the number of corners of the grid.
+	 * @return number of corners
+	 */
+	public int size() { return depths.length; }
+}
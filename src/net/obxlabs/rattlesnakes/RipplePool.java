@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.AbstractList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The active ripples, up to a fixed number of them.
+ * <p>The ripples are all created up front and reused, the active ones first.
+ * Each active ripple adds to the cost of deforming the words, so when a new
+ * ripple would go over the maximum, the two closest ripples (the new one
+ * included) are merged into one if their centers and radii are within the
+ * merge distance. The larger of the two stays where it is, so a ripple on
+ * screen doesn't jump, and only takes the speed of the other if it's faster.
+ * If none are that close, the oldest ripple, which has grown
+ * the most and is the closest to leaving the screen, is started over as the
+ * new one.</p>
+ * <p>The ripples can be read like a list, but only added through
+ * {@link #add(float, float, float)}.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class RipplePool extends AbstractList<Ripple> {
+
+	static Logger logger = Logger.getLogger(RipplePool.class);
+
+	static int CAPACITY = 8;			//maximum number of active ripples
+	static float MERGE_DISTANCE = 50;	//largest distance between the centers, and between the radii, of ripples to merge (pixels)
+
+	Ripple[] ripples;					//all the ripples, the active ones first
+	int count;							//number of active ripples
+	float mergeDistance;				//largest distance between the centers, and between the radii, of ripples to merge
+	int mergedCount;					//number of ripples merged since the pool was created
+	int evictedCount;					//number of ripples started over since the pool was created
+
+	/**
+	 * Constructor.
+	 * @param capacity maximum number of active ripples (at least 1)
+	 * @param mergeDistance largest distance between the centers, and between the radii, of ripples to merge
+	 */
+	public RipplePool(int capacity, float mergeDistance) {
+		this.ripples = new Ripple[Math.max(1, capacity)];
+		for(int i = 0; i < ripples.length; i++)
+			ripples[i] = new Ripple(0, 0, 0);
+		this.count = 0;
+		this.mergeDistance = mergeDistance;
+	}
+
+	/**
+	 * Add a ripple at x,y, merging or replacing one if the pool is full.
+	 * @param x x coordinate of the center
+	 * @param y y coordinate of the center
+	 * @param s speed
+	 */
+	public void add(float x, float y, float s) {
+		//if there is room, take the next ripple
+		if (count < ripples.length) {
+			ripples[count++].set(x, y, s);
+			return;
+		}
+
+		//find the two closest ripples, the new one stands after the active ones
+		int closestA = -1, closestB = -1;
+		float closest = Float.MAX_VALUE;
+		for(int a = 0; a < count; a++) {
+			Ripple ra = ripples[a];
+			for(int b = a+1; b <= count; b++) {
+				float bx = b == count ? x : ripples[b].center.x;
+				float by = b == count ? y : ripples[b].center.y;
+				float bRadius = b == count ? Ripple.START_RADIUS : ripples[b].radius;
+				float dx = ra.center.x - bx;
+				float dy = ra.center.y - by;
+				float dCenter = (float)Math.sqrt(dx*dx + dy*dy);
+				float dRadius = Math.abs(ra.radius - bRadius);
+				if (dCenter > mergeDistance || dRadius > mergeDistance) continue;
+				if (dCenter + dRadius < closest) {
+					closest = dCenter + dRadius;
+					closestA = a;
+					closestB = b;
+				}
+			}
+		}
+
+		//merge the closest ripples into the larger one, and start the other one over as the new one
+		if (closestA != -1) {
+			Ripple ra = ripples[closestA];
+			if (closestB == count)
+				merge(ra, Ripple.START_RADIUS, s);
+			else {
+				Ripple rb = ripples[closestB];
+				if (rb.radius > ra.radius) {
+					Ripple swap = ra;
+					ra = rb;
+					rb = swap;
+				}
+				merge(ra, rb.radius, rb.speed);
+				rb.set(x, y, s);
+			}
+			mergedCount++;
+			logger.debug("Merged two ripples to add one at " + (int)x + "," + (int)y + ".");
+			return;
+		}
+
+		//if none are close enough, start the oldest over
+		int oldest = 0;
+		for(int i = 1; i < count; i++)
+			if (ripples[i].radius > ripples[oldest].radius) oldest = i;
+		ripples[oldest].set(x, y, s);
+		evictedCount++;
+		logger.debug("Replaced the oldest ripple to add one at " + (int)x + "," + (int)y + ".");
+	}
+
+	/**
+	 * Merge a ripple into another, which keeps its center.
+	 * @param r the ripple to merge into
+	 * @param radius radius of the other ripple
+	 * @param s speed of the other ripple
+	 */
+	static void merge(Ripple r, float radius, float s) {
+		r.radius = Math.max(r.radius, radius);
+		r.speed = Math.max(r.speed, s);
+	}
+
+	/**
+	 * Make the ripples grow, and drop the ones that are too big.
+	 * @param maxRadius radius past which a ripple is dropped
+	 */
+	public void update(float maxRadius) {
+		int i = 0;
+		while(i < count) {
+			Ripple r = ripples[i];
+			r.update();
+
+			//drop the ripple by swapping it with the last active one, which is updated next
+			if (r.radius > maxRadius) {
+				ripples[i] = ripples[--count];
+				ripples[count] = r;
+			}
+			else
+				i++;
+		}
+	}
+
+	/**
+	 * Remove all the ripples.
+	 */
+	public void clear() { count = 0; }
+
+	/**
+	 * Get the number of ripples merged since the pool was created.
+	 * @return number of merged ripples
+	 */
+	public int mergedCount() { return mergedCount; }
+
+	/**
+	 * Get the number of ripples started over since the pool was created.
+	 * @return number of replaced ripples
+	 */
+	public int evictedCount() { return evictedCount; }
+
+	/**
+	 * Get the maximum number of active ripples.
+	 * @return capacity
+	 */
+	public int capacity() { return ripples.length; }
+
+	public Ripple get(int index) {
+		if (index >= count) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		return ripples[index];
+	}
+
+	public int size() { return count; }
+}
@@ -0,0 +1,713 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A pure Java polygon tessellator for glyph outlines with holes.
+ * <p>It follows the same begin/vertex/end sequence as the GLU tessellator
+ * and emits a list of triangles to a callback, either three vertices at
+ * a time or as an indexed mesh.
+ * Contours are filled with the odd winding rule: a contour nested in an
+ * odd number of other contours is a hole. Holes are bridged into their
+ * outer contour and the result is triangulated by ear clipping.</p>
+ * <p>Each instance keeps its own state, so separate instances can be used
+ * on separate threads at the same time.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class Tessellator {
+
+	/**
+	 * Receives the triangles of a tessellated polygon.
+	 */
+	public interface Callback {
+		/**
+		 * Receive a vertex of a triangle. Every three vertices form a triangle.
+		 * @param x x coordinate
+		 * @param y y coordinate
+		 * @param z z coordinate
+		 * @param polygonData user data passed to beginPolygon
+		 */
+		public void vertex(float x, float y, float z, Object polygonData);
+	}
+
+	/**
+	 * Receives the tessellated polygon as an indexed mesh.
+	 * <p>Each vertex used by the triangles is sent once, with indices
+	 * numbered from 0 in the order they are sent, then the triangles
+	 * are sent as indices into those vertices.</p>
+	 */
+	public interface IndexedCallback extends Callback {
+		/**
+		 * Receive a triangle.
+		 * @param a index of the first vertex
+		 * @param b index of the second vertex
+		 * @param c index of the third vertex
+		 * @param polygonData user data passed to beginPolygon
+		 */
+		public void triangle(int a, int b, int c, Object polygonData);
+	}
+
+	Callback callback;		//receiver of the triangles
+	Object polygonData;		//user data of the current polygon
+
+	float[] coords;			//x,y coordinates of the polygon's vertices
+	int vertexCount;		//number of vertices
+	int[] contours;			//index of the first vertex of each contour
+	int contourCount;		//number of contours
+
+	int[] triangles;		//vertex indices of the triangles
+	int triangleCount;		//number of indices in the triangle array
+
+	/**
+	 * Constructor.
+	 * @param callback receiver of the triangles
+	 */
+	public Tessellator(Callback callback) {
+		this.callback = callback;
+		this.coords = new float[256];
+		this.contours = new int[16];
+		this.triangles = new int[384];
+	}
+
+	/**
+	 * Start a new polygon.
+	 * @param data user data passed back with each vertex
+	 */
+	public void beginPolygon(Object data) {
+		polygonData = data;
+		vertexCount = 0;
+		contourCount = 0;
+		triangleCount = 0;
+	}
+
+	/**
+	 * Start a new contour.
+	 */
+	public void beginContour() {
+		if (contourCount == contours.length)
+			contours = Arrays.copyOf(contours, contours.length*2);
+		contours[contourCount++] = vertexCount;
+	}
+
+	/**
+	 * Add a vertex to the current contour.
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 */
+	public void vertex(float x, float y) {
+		if (vertexCount*2 == coords.length)
+			coords = Arrays.copyOf(coords, coords.length*2);
+		coords[vertexCount*2] = x;
+		coords[vertexCount*2+1] = y;
+		vertexCount++;
+	}
+
+	/**
+	 * End the current contour.
+	 */
+	public void endContour() {
+		//drop the closing vertex if it repeats the first one
+		int start = contours[contourCount-1];
+		if (vertexCount - start > 1 &&
+			coords[start*2] == coords[(vertexCount-1)*2] &&
+			coords[start*2+1] == coords[(vertexCount-1)*2+1])
+			vertexCount--;
+
+		//forget about degenerate contours
+		if (vertexCount - start < 3) {
+			vertexCount = start;
+			contourCount--;
+		}
+	}
+
+	/**
+	 * End the polygon, tessellate it and send the triangles to the callback.
+	 * <p>An {@link IndexedCallback} receives each vertex once followed by
+	 * the triangles' indices, other callbacks receive three vertices
+	 * per triangle.</p>
+	 */
+	public void endPolygon() {
+		triangulate();
+
+		if (callback instanceof IndexedCallback) {
+			emitIndexed((IndexedCallback)callback);
+			return;
+		}
+
+		for(int i = 0; i < triangleCount; i++) {
+			int v = triangles[i];
+			callback.vertex(coords[v*2], coords[v*2+1], 0, polygonData);
+		}
+	}
+
+	/**
+	 * Send the triangles as an indexed mesh, skipping the vertices that
+	 * were filtered out and renumbering the others in order of use.
+	 * @param indexed receiver of the mesh
+	 */
+	protected void emitIndexed(IndexedCallback indexed) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+
+		int used = 0;
+		for(int i = 0; i < triangleCount; i++) {
+			int v = triangles[i];
+			if (remap[v] != -1) continue;
+			remap[v] = used++;
+			indexed.vertex(coords[v*2], coords[v*2+1], 0, polygonData);
+		}
+
+		for(int i = 0; i < triangleCount; i+=3)
+			indexed.triangle(remap[triangles[i]], remap[triangles[i+1]], remap[triangles[i+2]], polygonData);
+	}
+
+	/**
+	 * Triangulate the current polygon into the triangle index array.
+	 */
+	protected void triangulate() {
+		triangleCount = 0;
+		if (contourCount == 0) return;
+
+		//find how deep each contour is nested, and its area
+		int[] depths = new int[contourCount];
+		float[] areas = new float[contourCount];
+		for(int c = 0; c < contourCount; c++) {
+			areas[c] = Math.abs(contourArea(c));
+			int first = contourStart(c);
+			for(int o = 0; o < contourCount; o++)
+				if (o != c && contains(o, coords[first*2], coords[first*2+1]))
+					depths[c]++;
+		}
+
+		//assign each hole to the smallest outer contour around it
+		int[] parents = new int[contourCount];
+		for(int c = 0; c < contourCount; c++) {
+			parents[c] = -1;
+			if (depths[c]%2 == 0) continue;
+
+			int first = contourStart(c);
+			for(int o = 0; o < contourCount; o++) {
+				if (depths[o] != depths[c]-1) continue;
+				if (parents[c] != -1 && areas[o] >= areas[parents[c]]) continue;
+				if (contains(o, coords[first*2], coords[first*2+1]))
+					parents[c] = o;
+			}
+		}
+
+		//triangulate each outer contour with its holes
+		int[] holes = new int[contourCount];
+		for(int c = 0; c < contourCount; c++) {
+			if (depths[c]%2 != 0) continue;
+
+			int holeCount = 0;
+			for(int h = 0; h < contourCount; h++)
+				if (parents[h] == c) holes[holeCount++] = h;
+
+			Node outer = linkedList(contourStart(c), contourEnd(c), true);
+			if (outer == null || outer.next == outer.prev) continue;
+			if (holeCount > 0) outer = eliminateHoles(holes, holeCount, outer);
+			earcutLinked(outer, 0);
+		}
+	}
+
+	/**
+	 * Get the first vertex index of a contour.
+	 * @param c contour index
+	 * @return vertex index
+	 */
+	protected int contourStart(int c) { return contours[c]; }
+
+	/**
+	 * Get the vertex index following the last vertex of a contour.
+	 * @param c contour index
+	 * @return vertex index
+	 */
+	protected int contourEnd(int c) { return c+1 < contourCount ? contours[c+1] : vertexCount; }
+
+	/**
+	 * Get the signed area of a contour.
+	 * @param c contour index
+	 * @return signed area (doubled)
+	 */
+	protected float contourArea(int c) {
+		return signedArea(contourStart(c), contourEnd(c));
+	}
+
+	/**
+	 * Check if a point is inside a contour (even-odd).
+	 * @param c contour index
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 * @return true if inside
+	 */
+	protected boolean contains(int c, float x, float y) {
+		boolean inside = false;
+		int start = contourStart(c);
+		int end = contourEnd(c);
+		for(int i = start, j = end-1; i < end; j = i++) {
+			float xi = coords[i*2], yi = coords[i*2+1];
+			float xj = coords[j*2], yj = coords[j*2+1];
+			if (((yi > y) != (yj > y)) && (x < (xj-xi) * (y-yi) / (yj-yi) + xi))
+				inside = !inside;
+		}
+		return inside;
+	}
+
+	/**
+	 * Get the signed area of a range of vertices.
+	 * @param start first vertex index
+	 * @param end vertex index following the last vertex
+	 * @return signed area (doubled)
+	 */
+	protected float signedArea(int start, int end) {
+		float sum = 0;
+		for(int i = start, j = end-1; i < end; j = i++)
+			sum += (coords[j*2] - coords[i*2]) * (coords[i*2+1] + coords[j*2+1]);
+		return sum;
+	}
+
+	/**
+	 * Add a triangle to the output.
+	 */
+	protected void addTriangle(int a, int b, int c) {
+		if (triangleCount+3 > triangles.length)
+			triangles = Arrays.copyOf(triangles, triangles.length*2);
+		triangles[triangleCount++] = a;
+		triangles[triangleCount++] = b;
+		triangles[triangleCount++] = c;
+	}
+
+	/**
+	 * A vertex of a contour in a circular doubly linked list.
+	 */
+	static class Node {
+		int i;				//vertex index
+		float x, y;			//coordinates
+		Node prev, next;	//neighbours in the contour
+		boolean steiner;	//true for a single point hole
+
+		Node(int i, float x, float y) {
+			this.i = i;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	//sorts hole nodes from left to right
+	static final Comparator<Node> LEFT_TO_RIGHT = new Comparator<Node>() {
+		public int compare(Node a, Node b) { return Float.compare(a.x, b.x); }
+	};
+
+	/**
+	 * Create a linked list of nodes from a range of vertices in a given winding order.
+	 */
+	protected Node linkedList(int start, int end, boolean clockwise) {
+		Node last = null;
+		if (clockwise == (signedArea(start, end) > 0)) {
+			for(int i = start; i < end; i++) last = insertNode(i, last);
+		} else {
+			for(int i = end-1; i >= start; i--) last = insertNode(i, last);
+		}
+
+		if (last != null && equals(last, last.next)) {
+			removeNode(last);
+			last = last.next;
+		}
+		return last;
+	}
+
+	/**
+	 * Remove duplicate and collinear points.
+	 */
+	protected Node filterPoints(Node start, Node end) {
+		if (start == null) return start;
+		if (end == null) end = start;
+
+		Node p = start;
+		boolean again;
+		do {
+			again = false;
+			if (!p.steiner && (equals(p, p.next) || area(p.prev, p, p.next) == 0)) {
+				removeNode(p);
+				p = end = p.prev;
+				if (p == p.next) break;
+				again = true;
+			} else {
+				p = p.next;
+			}
+		} while (again || p != end);
+
+		return end;
+	}
+
+	/**
+	 * Clip ears off a linked polygon until only one triangle is left.
+	 */
+	protected void earcutLinked(Node ear, int pass) {
+		if (ear == null) return;
+
+		Node stop = ear;
+		while (ear.prev != ear.next) {
+			Node prev = ear.prev;
+			Node next = ear.next;
+
+			if (isEar(ear)) {
+				addTriangle(prev.i, ear.i, next.i);
+				removeNode(ear);
+				ear = next.next;
+				stop = next.next;
+				continue;
+			}
+
+			ear = next;
+
+			//if we looped through the whole polygon without finding an ear
+			if (ear == stop) {
+				//try again after removing duplicate points
+				if (pass == 0) {
+					earcutLinked(filterPoints(ear, null), 1);
+				}
+				//then try to fix small self-intersections
+				else if (pass == 1) {
+					ear = cureLocalIntersections(filterPoints(ear, null));
+					earcutLinked(ear, 2);
+				}
+				//finally, split the polygon in two and start over
+				else if (pass == 2) {
+					splitEarcut(ear);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Check if a node is the tip of a valid ear.
+	 */
+	protected boolean isEar(Node ear) {
+		Node a = ear.prev, b = ear, c = ear.next;
+		if (area(a, b, c) >= 0) return false; //reflex
+
+		float minX = Math.min(a.x, Math.min(b.x, c.x));
+		float minY = Math.min(a.y, Math.min(b.y, c.y));
+		float maxX = Math.max(a.x, Math.max(b.x, c.x));
+		float maxY = Math.max(a.y, Math.max(b.y, c.y));
+
+		//make sure no other point is inside the ear
+		Node p = c.next;
+		while (p != a) {
+			if (p.x >= minX && p.x <= maxX && p.y >= minY && p.y <= maxY &&
+				pointInTriangle(a.x, a.y, b.x, b.y, c.x, c.y, p.x, p.y) &&
+				area(p.prev, p, p.next) >= 0) return false;
+			p = p.next;
+		}
+		return true;
+	}
+
+	/**
+	 * Go through all polygon nodes and cure small local self-intersections.
+	 */
+	protected Node cureLocalIntersections(Node start) {
+		Node p = start;
+		do {
+			Node a = p.prev, b = p.next.next;
+			if (!equals(a, b) && intersects(a, p, p.next, b) && locallyInside(a, b) && locallyInside(b, a)) {
+				addTriangle(a.i, p.i, b.i);
+				removeNode(p);
+				removeNode(p.next);
+				p = start = b;
+			}
+			p = p.next;
+		} while (p != start);
+
+		return filterPoints(p, null);
+	}
+
+	/**
+	 * Try splitting the polygon into two and triangulate them independently.
+	 */
+	protected void splitEarcut(Node start) {
+		Node a = start;
+		do {
+			Node b = a.next.next;
+			while (b != a.prev) {
+				if (a.i != b.i && isValidDiagonal(a, b)) {
+					Node c = splitPolygon(a, b);
+					a = filterPoints(a, a.next);
+					c = filterPoints(c, c.next);
+					earcutLinked(a, 0);
+					earcutLinked(c, 0);
+					return;
+				}
+				b = b.next;
+			}
+			a = a.next;
+		} while (a != start);
+	}
+
+	/**
+	 * Link every hole into the outer contour, producing a single contour.
+	 */
+	protected Node eliminateHoles(int[] holes, int holeCount, Node outer) {
+		Node[] queue = new Node[holeCount];
+		int count = 0;
+		for(int h = 0; h < holeCount; h++) {
+			Node list = linkedList(contourStart(holes[h]), contourEnd(holes[h]), false);
+			if (list == null) continue;
+			if (list == list.next) list.steiner = true;
+			queue[count++] = leftmost(list);
+		}
+		Arrays.sort(queue, 0, count, LEFT_TO_RIGHT);
+
+		for(int h = 0; h < count; h++)
+			outer = eliminateHole(queue[h], outer);
+		return outer;
+	}
+
+	/**
+	 * Find a bridge between a hole and the outer contour and link them.
+	 */
+	protected Node eliminateHole(Node hole, Node outer) {
+		Node bridge = findHoleBridge(hole, outer);
+		if (bridge == null) return outer;
+
+		Node bridgeReverse = splitPolygon(bridge, hole);
+		filterPoints(bridgeReverse, bridgeReverse.next);
+		return filterPoints(bridge, bridge.next);
+	}
+
+	/**
+	 * Find a vertex of the outer contour that can be connected to the hole.
+	 */
+	protected Node findHoleBridge(Node hole, Node outer) {
+		Node p = outer;
+		float hx = hole.x, hy = hole.y;
+		float qx = Float.NEGATIVE_INFINITY;
+		Node m = null;
+
+		//find a segment intersected by a ray from the hole's leftmost point to the left
+		do {
+			if (hy <= p.y && hy >= p.next.y && p.next.y != p.y) {
+				float x = p.x + (hy-p.y) * (p.next.x-p.x) / (p.next.y-p.y);
+				if (x <= hx && x > qx) {
+					qx = x;
+					m = p.x < p.next.x ? p : p.next;
+					if (x == hx) return m;
+				}
+			}
+			p = p.next;
+		} while (p != outer);
+
+		if (m == null) return null;
+
+		//look for points inside the triangle of hole point, segment intersection and endpoint;
+		//if there are none, then the endpoint is the bridge, if not, use the point with
+		//the minimum angle with the ray
+		Node stop = m;
+		float mx = m.x, my = m.y;
+		float tanMin = Float.POSITIVE_INFINITY;
+		p = m;
+		do {
+			if (hx >= p.x && p.x >= mx && hx != p.x &&
+				pointInTriangle(hy < my ? hx : qx, hy, mx, my, hy < my ? qx : hx, hy, p.x, p.y)) {
+				float tan = Math.abs(hy-p.y) / (hx-p.x);
+				if (locallyInside(p, hole) &&
+					(tan < tanMin || (tan == tanMin && (p.x > m.x || (p.x == m.x && sectorContainsSector(m, p)))))) {
+					m = p;
+					tanMin = tan;
+				}
+			}
+			p = p.next;
+		} while (p != stop);
+
+		return m;
+	}
+
+	/**
+	 * Check if the sector of m contains the sector of p.
+	 */
+	protected boolean sectorContainsSector(Node m, Node p) {
+		return area(m.prev, m, p.prev) < 0 && area(p.next, m, m.next) < 0;
+	}
+
+	/**
+	 * Find the leftmost node of a contour.
+	 */
+	protected Node leftmost(Node start) {
+		Node p = start, leftmost = start;
+		do {
+			if (p.x < leftmost.x || (p.x == leftmost.x && p.y < leftmost.y)) leftmost = p;
+			p = p.next;
+		} while (p != start);
+		return leftmost;
+	}
+
+	/**
+	 * Check if a diagonal between two nodes is valid.
+	 */
+	protected boolean isValidDiagonal(Node a, Node b) {
+		return a.next.i != b.i && a.prev.i != b.i && !intersectsPolygon(a, b) &&
+			   ((locallyInside(a, b) && locallyInside(b, a) && middleInside(a, b) &&
+				 (area(a.prev, a, b.prev) != 0 || area(a, b.prev, b) != 0)) ||
+				(equals(a, b) && area(a.prev, a, a.next) > 0 && area(b.prev, b, b.next) > 0));
+	}
+
+	/**
+	 * Check if a diagonal intersects any edge of the polygon.
+	 */
+	protected boolean intersectsPolygon(Node a, Node b) {
+		Node p = a;
+		do {
+			if (p.i != a.i && p.next.i != a.i && p.i != b.i && p.next.i != b.i &&
+				intersects(p, p.next, a, b)) return true;
+			p = p.next;
+		} while (p != a);
+		return false;
+	}
+
+	/**
+	 * Check if a diagonal is locally inside the polygon.
+	 */
+	protected boolean locallyInside(Node a, Node b) {
+		return area(a.prev, a, a.next) < 0 ?
+			   area(a, b, a.next) >= 0 && area(a, a.prev, b) >= 0 :
+			   area(a, b, a.prev) < 0 || area(a, a.next, b) < 0;
+	}
+
+	/**
+	 * Check if the middle of a diagonal is inside the polygon.
+	 */
+	protected boolean middleInside(Node a, Node b) {
+		Node p = a;
+		boolean inside = false;
+		float px = (a.x+b.x)/2, py = (a.y+b.y)/2;
+		do {
+			if (((p.y > py) != (p.next.y > py)) && p.next.y != p.y &&
+				(px < (p.next.x-p.x) * (py-p.y) / (p.next.y-p.y) + p.x))
+				inside = !inside;
+			p = p.next;
+		} while (p != a);
+		return inside;
+	}
+
+	/**
+	 * Link two nodes with a bridge, splitting the polygon in two.
+	 * If they belong to separate contours, they are merged into one.
+	 */
+	protected Node splitPolygon(Node a, Node b) {
+		Node a2 = new Node(a.i, a.x, a.y);
+		Node b2 = new Node(b.i, b.x, b.y);
+		Node an = a.next;
+		Node bp = b.prev;
+
+		a.next = b;
+		b.prev = a;
+
+		a2.next = an;
+		an.prev = a2;
+
+		b2.next = a2;
+		a2.prev = b2;
+
+		bp.next = b2;
+		b2.prev = bp;
+
+		return b2;
+	}
+
+	/**
+	 * Create a node and insert it after the last one.
+	 */
+	protected Node insertNode(int i, Node last) {
+		Node p = new Node(i, coords[i*2], coords[i*2+1]);
+		if (last == null) {
+			p.prev = p;
+			p.next = p;
+		} else {
+			p.next = last.next;
+			p.prev = last;
+			last.next.prev = p;
+			last.next = p;
+		}
+		return p;
+	}
+
+	/**
+	 * Remove a node from its list.
+	 */
+	protected static void removeNode(Node p) {
+		p.next.prev = p.prev;
+		p.prev.next = p.next;
+	}
+
+	/**
+	 * Signed area of a triangle.
+	 */
+	protected static float area(Node p, Node q, Node r) {
+		return (q.y-p.y) * (r.x-q.x) - (q.x-p.x) * (r.y-q.y);
+	}
+
+	/**
+	 * Check if two nodes are at the same position.
+	 */
+	protected static boolean equals(Node a, Node b) {
+		return a.x == b.x && a.y == b.y;
+	}
+
+	/**
+	 * Check if a point is inside a triangle.
+	 */
+	protected static boolean pointInTriangle(float ax, float ay, float bx, float by, float cx, float cy, float px, float py) {
+		return (cx-px) * (ay-py) >= (ax-px) * (cy-py) &&
+			   (ax-px) * (by-py) >= (bx-px) * (ay-py) &&
+			   (bx-px) * (cy-py) >= (cx-px) * (by-py);
+	}
+
+	/**
+	 * Check if two segments intersect.
+	 */
+	protected static boolean intersects(Node p1, Node q1, Node p2, Node q2) {
+		int o1 = sign(area(p1, q1, p2));
+		int o2 = sign(area(p1, q1, q2));
+		int o3 = sign(area(p2, q2, p1));
+		int o4 = sign(area(p2, q2, q1));
+
+		if (o1 != o2 && o3 != o4) return true;
+
+		if (o1 == 0 && onSegment(p1, p2, q1)) return true;
+		if (o2 == 0 && onSegment(p1, q2, q1)) return true;
+		if (o3 == 0 && onSegment(p2, p1, q2)) return true;
+		if (o4 == 0 && onSegment(p2, q1, q2)) return true;
+
+		return false;
+	}
+
+	/**
+	 * Check if q lies on the segment pr, knowing that the three are collinear.
+	 */
+	protected static boolean onSegment(Node p, Node q, Node r) {
+		return q.x <= Math.max(p.x, r.x) && q.x >= Math.min(p.x, r.x) &&
+			   q.y <= Math.max(p.y, r.y) && q.y >= Math.min(p.y, r.y);
+	}
+
+	/**
+	 * Get the sign of a number.
+	 */
+	protected static int sign(float n) { return n > 0 ? 1 : n < 0 ? -1 : 0; }
+}
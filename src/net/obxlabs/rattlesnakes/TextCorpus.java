@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The background texts, one page each.
+ * <p>Pages are decoded when they are needed instead of all at startup, so
+ * that a corpus can hold thousands of them. The corpus is either the list
+ * of files of the text.files property, every text file of a folder, or a
+ * single UTF-8 file with the pages separated by form feeds, which is mapped
+ * in memory, or read when needed if the texts are reloaded, and indexed
+ * once.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public abstract class TextCorpus {
+
+	static Logger logger = Logger.getLogger(TextCorpus.class);
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	static final byte PAGE_BREAK = '\f';	//separates the pages of a corpus file
+
+	/**
+	 * Open the corpus set in the config.
+	 * <p>When text.corpus is empty, the corpus is the list of text.files.
+	 * Otherwise it's the folder or file it names, looked up in the data
+	 * folder first.</p>
+	 * @param p parent Processing applet
+	 * @return the corpus
+	 * @throws IOException if the corpus can't be read
+	 */
+	public static TextCorpus open(Rattlesnakes p) throws IOException {
+		String name = Rattlesnakes.TEXT_CORPUS;
+		if (name == null || name.isEmpty())
+			return new Files(p, Rattlesnakes.TEXT_FILES);
+
+		File file = new File(p.dataPath(name));
+		if (!file.exists()) file = new File(name);
+		if (file.isDirectory()) return new Folder(file);
+		return new Mapped(file, !Rattlesnakes.TEXT_RELOAD);
+	}
+
+	/**
+	 * Get the number of pages.
+	 * @return number of pages
+	 */
+	public abstract int size();
+
+	/**
+	 * Decode the lines of a page.
+	 * @param index index of the page
+	 * @return the lines, or null if the page can't be read
+	 */
+	public abstract String[] lines(int index);
+
+	/**
+	 * Get the files the corpus is read from, to watch them for changes.
+	 * @return files or folders
+	 */
+	public abstract File[] sources();
+
+	/**
+	 * Add the content of the corpus to a digest.
+	 * @param digest the digest
+	 * @throws IOException if the corpus can't be read
+	 */
+	public abstract void digest(MessageDigest digest) throws IOException;
+
+	/**
+	 * Check if the pages are only read when needed.
+	 * <p>Small corpora are read all at startup, so that their fonts can be
+	 * created at once.</p>
+	 * @return true if the pages are read when needed
+	 */
+	public boolean isStreamed() { return true; }
+
+	/**
+	 * Read lines the same way loadStrings() does.
+	 * @param reader the reader
+	 * @return the lines
+	 * @throws IOException if the lines can't be read
+	 */
+	static String[] readLines(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		try {
+			ArrayList<String> lines = new ArrayList<String>();
+			String line;
+			while((line = in.readLine()) != null)
+				lines.add(line);
+			return lines.toArray(new String[lines.size()]);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The text files listed in the config, read with loadStrings().
+	 */
+	static class Files extends TextCorpus {
+		Rattlesnakes p;						//parent Processing applet
+		String[] files;						//text file of each page
+
+		/**
+		 * Constructor.
+		 * @param p parent Processing applet
+		 * @param files text file of each page
+		 */
+		Files(Rattlesnakes p, String[] files) {
+			this.p = p;
+			this.files = files;
+		}
+
+		public int size() { return files.length; }
+
+		public String[] lines(int index) { return p.loadStrings(files[index]); }
+
+		public File[] sources() {
+			File[] sources = new File[files.length];
+			for(int i = 0; i < files.length; i++)
+				sources[i] = new File(p.dataPath(files[i]));
+			return sources;
+		}
+
+		public void digest(MessageDigest digest) throws IOException {
+			for(File file : sources())
+				PageBundle.digestFile(digest, file);
+		}
+
+		public boolean isStreamed() { return false; }
+
+		public String toString() { return Arrays.toString(files); }
+	}
+
+	/**
+	 * Every text file of a folder, one page each, in natural order
+	 * of their names (body-2.txt comes before body-10.txt).
+	 */
+	static class Folder extends TextCorpus {
+		File folder;						//folder of the pages
+		File[] files;						//text file of each page
+
+		/**
+		 * Constructor.
+		 * @param folder folder of the pages
+		 * @throws IOException if the folder can't be listed
+		 */
+		Folder(File folder) throws IOException {
+			this.folder = folder;
+			this.files = folder.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return file.isFile() && !file.isHidden() && file.getName().toLowerCase().endsWith(".txt");
+				}
+			});
+			if (files == null) throw new IOException("Could not list " + folder);
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File a, File b) { return compareNatural(a.getName(), b.getName()); }
+			});
+		}
+
+		public int size() { return files.length; }
+
+		public String[] lines(int index) {
+			try {
+				return readLines(new InputStreamReader(new FileInputStream(files[index]), UTF8));
+			} catch (IOException e) {
+				logger.error("Could not read page " + files[index] + ": " + e.getMessage());
+				return null;
+			}
+		}
+
+		public File[] sources() { return new File[] { folder }; }
+
+		public void digest(MessageDigest digest) throws IOException {
+			for(File file : files) {
+				digest.update(file.getName().getBytes(UTF8));
+				PageBundle.digestFile(digest, file);
+			}
+		}
+
+		public String toString() { return folder.getPath(); }
+
+		/**
+		 * Compare two names, with the numbers in them compared by value.
+		 * @param a first name
+		 * @param b second name
+		 * @return negative, zero or positive if a comes before, with, or after b
+		 */
+		static int compareNatural(String a, String b) {
+			int i = 0, j = 0;
+			while(i < a.length() && j < b.length()) {
+				char ca = a.charAt(i), cb = b.charAt(j);
+				if (Character.isDigit(ca) && Character.isDigit(cb)) {
+					//compare the numbers by length without leading zeros, then digit by digit
+					int si = i, sj = j;
+					while(si < a.length()-1 && a.charAt(si) == '0' && Character.isDigit(a.charAt(si+1))) si++;
+					while(sj < b.length()-1 && b.charAt(sj) == '0' && Character.isDigit(b.charAt(sj+1))) sj++;
+					int ei = si, ej = sj;
+					while(ei < a.length() && Character.isDigit(a.charAt(ei))) ei++;
+					while(ej < b.length() && Character.isDigit(b.charAt(ej))) ej++;
+					if (ei-si != ej-sj) return (ei-si) - (ej-sj);
+					int c = a.substring(si, ei).compareTo(b.substring(sj, ej));
+					if (c != 0) return c;
+					i = ei;
+					j = ej;
+				}
+				else {
+					if (ca != cb) return ca - cb;
+					i++;
+					j++;
+				}
+			}
+			return (a.length()-i) - (b.length()-j);
+		}
+	}
+
+	/**
+	 * A single UTF-8 file with the pages separated by form feeds.
+	 * <p>The file is mapped in memory and only the position of each page
+	 * is kept, the pages are decoded when they are needed. A form feed ends
+	 * a page, and the line break that follows it is skipped.</p>
+	 * <p>When the texts are reloaded, the file is read with positional reads
+	 * instead, since an editor saving it in place would leave the mapping
+	 * pointing at a shorter file. Until TextReloader opens the corpus again,
+	 * the pages are read at the positions found when it was opened.</p>
+	 */
+	static class Mapped extends TextCorpus {
+		static final int CHUNK = 65536;		//bytes read at a time to find the pages when not mapped
+
+		File file;							//corpus file
+		ByteBuffer buffer;					//mapped content of the file, null if read when needed
+		int length;							//length of the file when opened
+		long modified;						//last modification time of the file when opened
+		int[] pageStarts;					//position of the first byte of each page
+		int[] pageEnds;						//position after the last byte of each page
+
+		/**
+		 * Constructor.
+		 * @param file corpus file
+		 * @param map true to map the file in memory, false to read it when needed
+		 * @throws IOException if the file can't be mapped or read
+		 */
+		Mapped(File file, boolean map) throws IOException {
+			this.file = file;
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IOException("Corpus " + file + " is larger than 2GB");
+				length = (int)channel.size();
+				modified = file.lastModified();
+
+				//map the whole file, the mapping stays valid after the channel is closed
+				if (map) buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+				index(channel);
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * Find the position of each page.
+		 * @param channel channel of the file
+		 * @throws IOException if the file can't be read
+		 */
+		void index(FileChannel channel) throws IOException {
+			int[] breaks = breaks(channel);
+			int[] starts = new int[64];
+			int[] ends = new int[64];
+			int count = 0;
+			int start = 0;
+			for(int i : breaks) {
+				//skip the empty page after a trailing page break
+				if (i == length && start == length && count > 0) break;
+
+				if (count == starts.length) {
+					starts = Arrays.copyOf(starts, count*2);
+					ends = Arrays.copyOf(ends, count*2);
+				}
+				starts[count] = start;
+				ends[count] = i;
+				count++;
+
+				//the next page starts after the line break that follows the page break
+				start = i+1;
+				if (start < length && get(channel, start) == '\r') start++;
+				if (start < length && get(channel, start) == '\n') start++;
+			}
+			pageStarts = Arrays.copyOf(starts, count);
+			pageEnds = Arrays.copyOf(ends, count);
+		}
+
+		/**
+		 * Find the page breaks.
+		 * @param channel channel of the file
+		 * @return position of each page break, followed by the length of the file
+		 * @throws IOException if the file can't be read
+		 */
+		int[] breaks(FileChannel channel) throws IOException {
+			int[] breaks = new int[64];
+			int count = 0;
+			ByteBuffer chunk = buffer != null ? buffer.duplicate() : ByteBuffer.allocate(CHUNK);
+			int offset = 0;
+			while(offset < length) {
+				if (buffer == null) {
+					chunk.clear();
+					if (channel.read(chunk, offset) <= 0) throw new IOException("Corpus " + file + " is shorter than " + length + " bytes");
+					chunk.flip();
+				}
+				int end = offset + chunk.remaining();
+				for(int i = offset; i < end; i++) {
+					if (chunk.get(i-offset) != PAGE_BREAK) continue;
+					if (count == breaks.length) breaks = Arrays.copyOf(breaks, count*2);
+					breaks[count++] = i;
+				}
+				offset = end;
+			}
+			breaks = Arrays.copyOf(breaks, count+1);
+			breaks[count] = length;
+			return breaks;
+		}
+
+		/**
+		 * Get a byte of the file.
+		 * @param channel channel of the file
+		 * @param position position of the byte
+		 * @return the byte
+		 * @throws IOException if the file can't be read
+		 */
+		byte get(FileChannel channel, int position) throws IOException {
+			if (buffer != null) return buffer.get(position);
+			ByteBuffer b = ByteBuffer.allocate(1);
+			if (channel.read(b, position) != 1) throw new IOException("Corpus " + file + " is shorter than " + length + " bytes");
+			return b.get(0);
+		}
+
+		public int size() { return pageStarts.length; }
+
+		public String[] lines(int index) {
+			try {
+				return readLines(new StringReader(UTF8.decode(page(index)).toString()));
+			} catch (IOException e) {
+				logger.error("Could not read page " + index + " of " + file + ": " + e.getMessage());
+				return null;
+			}
+		}
+
+		/**
+		 * Get the bytes of a page.
+		 * @param index index of the page
+		 * @return the bytes
+		 * @throws IOException if the file can't be read
+		 */
+		ByteBuffer page(int index) throws IOException {
+			if (buffer != null) {
+				ByteBuffer page = buffer.duplicate();
+				page.limit(pageEnds[index]).position(pageStarts[index]);
+				return page;
+			}
+
+			if (file.lastModified() != modified)
+				logger.info("Corpus " + file + " changed since it was opened, page " + index + " may be off until it's reloaded.");
+
+			ByteBuffer page = ByteBuffer.allocate(pageEnds[index]-pageStarts[index]);
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				while(page.hasRemaining())
+					if (channel.read(page, pageStarts[index]+page.position()) <= 0) break;
+			} finally {
+				raf.close();
+			}
+			page.flip();
+			return page;
+		}
+
+		public File[] sources() { return new File[] { file }; }
+
+		public void digest(MessageDigest digest) throws IOException {
+			if (buffer == null) {
+				PageBundle.digestFile(digest, file);
+				return;
+			}
+			ByteBuffer content = buffer.duplicate();
+			content.rewind();
+			digest.update(content);
+		}
+
+		public String toString() { return file.getPath(); }
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Map;
+
+import processing.core.PFont;
+
+/**
+ * The layout of a background text for a screen width.
+ * <p>Each line is set at the font size that makes it fill the width of the
+ * screen, and its words are spread to reach both margins. The layout holds
+ * the font size and position of each line, and the spacing, position and
+ * bounds of each word, and the fonts of its lines so that they stay in memory
+ * as long as the layout does. It doesn't change once computed, so it can be shared
+ * between threads and used to build the words of a page again.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class TextLayout {
+
+	static final int MIN_FONT_SIZE = 24;	//smallest font size of a line
+
+	final int index;				//index of the text
+	final String[] lines;			//lines of the text
+	final float[] lineSpacings;		//spacing under each line, can be shorter than the lines or null
+	final String[][] words;			//words of each line
+	final int[] fontSizes;			//font size of each line
+	final Map<Integer, PFont> fonts;	//fonts of the lines, by size
+	final float[] lineY;			//top of each line
+	final float[] baselineY;		//baseline of each line
+	final float[] wordSpacing;		//word spacing offset of each line
+	final float[][] wordX;			//left of each word
+	final int[][] bounds;			//bounds of each word (x, y, width, height)
+
+	/**
+	 * Constructor.
+	 * @param index index of the text
+	 * @param lines lines of the text
+	 * @param lineSpacings spacing under each line, can be shorter than the lines or null
+	 * @param fonts fonts of the lines, by size
+	 */
+	protected TextLayout(int index, String[] lines, float[] lineSpacings, Map<Integer, PFont> fonts) {
+		int lineCount = lines.length;
+		this.index = index;
+		this.lines = lines;
+		this.lineSpacings = lineSpacings;
+		this.fonts = fonts;
+		this.words = new String[lineCount][];
+		this.fontSizes = new int[lineCount];
+		this.lineY = new float[lineCount];
+		this.baselineY = new float[lineCount];
+		this.wordSpacing = new float[lineCount];
+		this.wordX = new float[lineCount][];
+		this.bounds = new int[lineCount][];
+	}
+
+	/**
+	 * Lay out a text.
+	 * @param index index of the text
+	 * @param lines lines of the text
+	 * @param fontSizes font size of each line
+	 * @param fonts fonts by size, at their own size, kept by the layout
+	 * @param width width of the screen
+	 * @param verticalMargin top margin
+	 * @param horizontalMargin left and right margins
+	 * @param lineSpacings spacing under each line, can be shorter than the lines or null
+	 * @return the layout
+	 */
+	public static TextLayout layout(int index, String[] lines, int[] fontSizes, Map<Integer, PFont> fonts,
+			float width, float verticalMargin, float horizontalMargin, float[] lineSpacings) {
+		TextLayout layout = new TextLayout(index, lines, lineSpacings, fonts);
+
+		//start position lines at the set margin
+		float y = verticalMargin;
+		for(int i = 0; i < lines.length; i++) {
+			PFont font = fonts.get(fontSizes[i]);
+			float ascent = ascentOf(font);
+			float descent = descentOf(font);
+			boolean spaced = lineSpacings != null && lineSpacings.length > i;
+			float spacing = spaced ? lineSpacings[i] : 0;
+
+			layout.fontSizes[i] = fontSizes[i];
+			layout.lineY[i] = y;
+			layout.baselineY[i] = y + ascent;
+
+			//the lines are rarely exactly the width of the screen,
+			//so space the words
+			String[] wordStrings = lines[i].split(" ");
+			float lineWidth = widthOf(font, lines[i]);
+			float wordSpacing = 0;
+			if (wordStrings.length > 1)
+				wordSpacing = (width-horizontalMargin*2-lineWidth)/(float)(wordStrings.length-1) + widthOf(font, " ");
+
+			layout.words[i] = wordStrings;
+			layout.wordSpacing[i] = wordSpacing;
+			layout.wordX[i] = new float[wordStrings.length];
+			layout.bounds[i] = new int[wordStrings.length*4];
+
+			//start position words at the set margin
+			float x = horizontalMargin;
+			for(int w = 0; w < wordStrings.length; w++) {
+				float wordWidth = widthOf(font, wordStrings[w]);
+				layout.wordX[i][w] = x;
+				layout.bounds[i][w*4] = (int)(x - wordSpacing/2);
+				layout.bounds[i][w*4+1] = (int)(y - (spaced ? spacing/2+1 : 0));
+				layout.bounds[i][w*4+2] = (int)(wordWidth + wordSpacing);
+				layout.bounds[i][w*4+3] = (int)((ascent+descent) + (spaced ? spacing+2 : 0));
+
+				//move the cursor to the next word's position
+				x += wordWidth + wordSpacing;
+			}
+
+			//move the cursor to the start of the next line
+			y += ascent + descent + spacing;
+		}
+
+		return layout;
+	}
+
+	/**
+	 * Find the font size that makes each line of a text fill a width.
+	 * @param font font to measure with, at any size
+	 * @param lines lines of the text
+	 * @param maxWidth width to fill
+	 * @return font size of each line
+	 */
+	public static int[] fitFontSizes(PFont font, String[] lines, float maxWidth) {
+		int[] sizes = new int[lines.length];
+		for(int i = 0; i < lines.length; i++)
+			sizes[i] = fitFontSize(font, lines[i], maxWidth);
+		return sizes;
+	}
+
+	/**
+	 * Find the font size that makes a line of text fill a width.
+	 * <p>The size is estimated from the line's advance at size 1, then
+	 * corrected with a binary search on the width measured the same way
+	 * textSize() and textWidth() would, so the result is the size the
+	 * line would get by trying every size from {@link #MIN_FONT_SIZE} up.</p>
+	 * @param font font to measure with, at any size
+	 * @param line line of text
+	 * @param maxWidth width to fill
+	 * @return largest size at which the line is narrower than the width,
+	 * and at least {@link #MIN_FONT_SIZE}
+	 */
+	public static int fitFontSize(PFont font, String line, float maxWidth) {
+		//estimate the size from the advance of the line at size 1
+		float advance = 0;
+		for(int k = 0; k < line.length(); k++)
+			advance += font.width(line.charAt(k));
+		if (advance <= 0) return MIN_FONT_SIZE;
+		int estimate = (int)Math.ceil(maxWidth / advance);
+
+		//find a size that is too small and one that is wide enough around the estimate
+		int lo = Math.max(MIN_FONT_SIZE, estimate-1);
+		int hi = Math.max(MIN_FONT_SIZE+1, estimate+1);
+		while(lo > MIN_FONT_SIZE && widthAt(font, line, lo) >= maxWidth)
+			lo = Math.max(MIN_FONT_SIZE, lo - (hi-lo));
+		while(widthAt(font, line, hi) < maxWidth) {
+			lo = hi;
+			hi *= 2;
+		}
+
+		//the smallest wide enough size is in (lo, hi], sizes are tried from MIN_FONT_SIZE+1 up
+		while(hi - lo > 1) {
+			int mid = (lo+hi) >>> 1;
+			if (widthAt(font, line, mid) < maxWidth) lo = mid;
+			else hi = mid;
+		}
+		return hi-1;
+	}
+
+	/**
+	 * Get the width of a string set in a font at a size.
+	 * <p>Same arithmetic as textWidth() after textSize(), so the
+	 * result is exactly what the renderer measures.</p>
+	 * @param font the font
+	 * @param str the string
+	 * @param size font size
+	 * @return width in pixels
+	 */
+	static float widthAt(PFont font, String str, float size) {
+		float w = 0;
+		for(int k = 0; k < str.length(); k++)
+			w += font.width(str.charAt(k)) * size;
+		return w;
+	}
+
+	/**
+	 * Get the width of a string set in a font at its own size.
+	 * @param font the font
+	 * @param str the string
+	 * @return width in pixels
+	 */
+	static float widthOf(PFont font, String str) {
+		float w = 0;
+		for(int i = 0; i < str.length(); i++)
+			w += font.width(str.charAt(i));
+		return w * font.getSize();
+	}
+
+	/**
+	 * Get the ascent of a font at its own size.
+	 * @param font the font
+	 * @return ascent in pixels
+	 */
+	static float ascentOf(PFont font) { return font.ascent() * font.getSize(); }
+
+	/**
+	 * Get the descent of a font at its own size.
+	 * @param font the font
+	 * @return descent in pixels
+	 */
+	static float descentOf(PFont font) { return font.descent() * font.getSize(); }
+
+	/**
+	 * Check if the layout was made from the same lines and spacings.
+	 * @param lines lines of the text
+	 * @param lineSpacings spacing under each line, can be shorter than the lines or null
+	 * @return true if the lines and spacings are the same
+	 */
+	public boolean isLayoutOf(String[] lines, float[] lineSpacings) {
+		return Arrays.equals(this.lines, lines) && Arrays.equals(this.lineSpacings, lineSpacings);
+	}
+
+	/**
+	 * Get the number of lines.
+	 * @return number of lines
+	 */
+	public int lineCount() { return words.length; }
+
+	/**
+	 * Get the number of words of a line.
+	 * @param line index of the line
+	 * @return number of words
+	 */
+	public int wordCount(int line) { return words[line].length; }
+
+	/**
+	 * Get a word.
+	 * @param line index of the line
+	 * @param word index of the word in the line
+	 * @return the word
+	 */
+	public String word(int line, int word) { return words[line][word]; }
+
+	/**
+	 * Get the font size of a line.
+	 * @param line index of the line
+	 * @return font size
+	 */
+	public int fontSize(int line) { return fontSizes[line]; }
+
+	/**
+	 * Get the font of a line.
+	 * @param line index of the line
+	 * @return font, at its own size
+	 */
+	public PFont font(int line) { return fonts.get(fontSizes[line]); }
+
+	/**
+	 * Get the top of a line.
+	 * @param line index of the line
+	 * @return vertical position
+	 */
+	public float lineY(int line) { return lineY[line]; }
+
+	/**
+	 * Get the baseline of a line, where its words are positioned.
+	 * @param line index of the line
+	 * @return vertical position
+	 */
+	public float baselineY(int line) { return baselineY[line]; }
+
+	/**
+	 * Get the word spacing offset of a line.
+	 * @param line index of the line
+	 * @return word spacing
+	 */
+	public float wordSpacing(int line) { return wordSpacing[line]; }
+
+	/**
+	 * Get the left of a word.
+	 * @param line index of the line
+	 * @param word index of the word in the line
+	 * @return horizontal position
+	 */
+	public float wordX(int line, int word) { return wordX[line][word]; }
+
+	/**
+	 * Get the bounds of a word, used to touch it.
+	 * @param line index of the line
+	 * @param word index of the word in the line
+	 * @param r rectangle to set to the bounds
+	 */
+	public void bounds(int line, int word, Rectangle r) {
+		int[] b = bounds[line];
+		r.setBounds(b[word*4], b[word*4+1], b[word*4+2], b[word*4+3]);
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reloads the background texts when they are edited while the app runs.
+ * <p>The texts and the config file are watched. When they change, the
+ * corpus is opened again and the texts that are laid out in memory are
+ * compared with it. Only the ones whose lines or line spacings changed are
+ * laid out and tessellated again, in the background. The other texts are
+ * read from the new corpus when they are needed. The reloaded texts wait
+ * until the sketch moves to the next page to be swapped in all at once, so
+ * the page on screen never changes under the snakes. Pages that didn't
+ * change keep their words and meshes.</p>
+ * <p>Other settings (the font, the margins) still need a restart.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class TextReloader implements Runnable {
+
+	static Logger logger = Logger.getLogger(TextReloader.class);
+
+	static final int SETTLE_DELAY = 500;	//time to wait for an editor to finish saving (millis)
+
+	Rattlesnakes p;							//parent Processing applet
+	WatchService watcher;					//watches the text and config folders
+	Thread thread;							//thread reloading the texts
+	Map<Path, Set<String>> watched;			//names of the watched files by folder (null for all files)
+
+	Reload pending;							//reloaded texts waiting for the next page
+
+	/**
+	 * A reloaded text, ready to be swapped in.
+	 */
+	static class ReloadedText {
+		TextLayout layout;					//layout of the text
+		Page page;							//page of the text
+	}
+
+	/**
+	 * Reloaded texts to swap in at the next page.
+	 */
+	static class Reload {
+		TextCorpus corpus;					//corpus opened again
+		float[][] lineSpacings;				//line spacings of all the texts
+		Set<Integer> checked;				//texts that were compared with the new corpus
+		List<ReloadedText> texts;			//texts that changed
+	}
+
+	/**
+	 * Constructor.
+	 * @param p parent Processing applet, already set up
+	 */
+	public TextReloader(Rattlesnakes p) {
+		this.p = p;
+	}
+
+	/**
+	 * Start watching the texts.
+	 */
+	public void start() {
+		watched = new HashMap<Path, Set<String>>();
+		for(File source : p.corpus.sources())
+			watch(source);
+		if (Rattlesnakes.CONFIG_FILE != null)
+			watch(new File(Rattlesnakes.CONFIG_FILE));
+
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			for(Path folder : watched.keySet())
+				folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			logger.warn("Could not watch the texts for changes: " + e.getMessage());
+			return;
+		}
+
+		thread = new Thread(this, "text-reloader");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		logger.info("Watching " + watched.size() + " folders for changes to the texts.");
+	}
+
+	/**
+	 * Add a file or folder to the watched files.
+	 * @param source file, or folder to watch all its files
+	 */
+	void watch(File source) {
+		source = source.getAbsoluteFile();
+		if (source.isDirectory()) {
+			watched.put(source.toPath(), null);
+			return;
+		}
+
+		Path folder = source.getParentFile().toPath();
+		if (watched.containsKey(folder) && watched.get(folder) == null) return;
+		Set<String> names = watched.get(folder);
+		if (names == null) {
+			names = new HashSet<String>();
+			watched.put(folder, names);
+		}
+		names.add(source.getName());
+	}
+
+	/**
+	 * Stop watching the texts.
+	 */
+	public void stop() {
+		if (watcher == null) return;
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			logger.warn("Could not stop watching the texts: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Take the reloaded texts that are ready.
+	 * @return the reloaded texts, or null if nothing changed
+	 */
+	public synchronized Reload take() {
+		Reload reload = pending;
+		pending = null;
+		return reload;
+	}
+
+	/**
+	 * Watch for changes and reload the texts.
+	 */
+	public void run() {
+		try {
+			while(true) {
+				//wait for a change to one of the watched files
+				if (!changed(watcher.take())) continue;
+
+				//let the editor finish saving, and group the changes that follow
+				do {
+					Thread.sleep(SETTLE_DELAY);
+				} while(changed(watcher.poll()));
+
+				try {
+					reload();
+				} catch (Exception e) {
+					//a half saved file shouldn't stop the watch
+					logger.warn("Could not reload the texts: " + e.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			//stopped
+		} catch (ClosedWatchServiceException e) {
+			//stopped
+		}
+	}
+
+	/**
+	 * Check if a watch event is about one of the watched files.
+	 * @param key key of the watch event, can be null
+	 * @return true if a watched file changed
+	 */
+	boolean changed(WatchKey key) {
+		if (key == null) return false;
+		Set<String> names = watched.get(key.watchable());
+		boolean changed = false;
+		for(WatchEvent<?> event : key.pollEvents())
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || names == null ||
+				(event.context() instanceof Path && names.contains(((Path)event.context()).getFileName().toString())))
+				changed = true;
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Open the corpus again and reload the texts in memory that changed.
+	 * @throws IOException if the corpus or the config file can't be read
+	 */
+	void reload() throws IOException {
+		long start = System.nanoTime();
+
+		//read the line spacings again
+		float[][] lineSpacings = Rattlesnakes.TEXT_LINES_SPACINGS;
+		if (Rattlesnakes.CONFIG_FILE != null) {
+			Properties props = new Properties();
+			InputStream in = new FileInputStream(Rattlesnakes.CONFIG_FILE);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+			lineSpacings = Rattlesnakes.parseLineSpacings(props.getProperty("text.line.spacings", "0"));
+		}
+
+		Reload reload = new Reload();
+		reload.corpus = TextCorpus.open(p);
+		reload.lineSpacings = lineSpacings;
+		reload.checked = new HashSet<Integer>();
+		reload.texts = new ArrayList<ReloadedText>();
+
+		//compare with the latest version of each text in memory,
+		//which is the one waiting to be swapped in if there is one
+		List<TextLayout> layouts;
+		synchronized(p.textLayouts) {
+			layouts = new ArrayList<TextLayout>(p.textLayouts.values());
+		}
+		Map<Integer, ReloadedText> previous = new HashMap<Integer, ReloadedText>();
+		synchronized(this) {
+			if (pending != null)
+				for(ReloadedText text : pending.texts)
+					previous.put(text.layout.index, text);
+		}
+
+		List<Integer> changed = new ArrayList<Integer>();
+		for(TextLayout layout : layouts) {
+			int i = layout.index;
+			if (i >= reload.corpus.size()) continue;
+			reload.checked.add(i);
+
+			String[] lines = reload.corpus.lines(i);
+			if (lines == null) lines = new String[0];
+			float[] spacings = i < lineSpacings.length ? lineSpacings[i] : null;
+
+			ReloadedText text = previous.get(i);
+			TextLayout latest = text != null ? text.layout : layout;
+			if (latest.isLayoutOf(lines, spacings)) {
+				if (text != null) reload.texts.add(text);
+				continue;
+			}
+
+			//lay out and tessellate the text again
+			text = new ReloadedText();
+			text.layout = p.layoutText(i, lines, p.fitFontSizes(lines), spacings);
+			text.page = p.buildPage(text.layout, text.layout.fonts);
+			reload.texts.add(text);
+			changed.add(i);
+		}
+
+		//queue them for the next page, replacing the older reload still waiting
+		synchronized(this) {
+			pending = reload;
+		}
+
+		logger.info("Reloaded " + reload.corpus.size() + " texts (" + changed.size() + " laid out again: " + changed + ") in " +
+				(System.nanoTime()-start)/1000000 + "ms, they will show from the next page.");
+	}
+}
@@ -13,27 +13,15 @@
 package net.obxlabs.rattlesnakes;
 
 import java.awt.Rectangle;
-import java.awt.Shape;
-import java.awt.font.FontRenderContext;
-import java.awt.font.GlyphVector;
-import java.awt.geom.GeneralPath;
-import java.awt.geom.PathIterator;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-
-import javax.media.opengl.GL;
-import javax.media.opengl.GL2;
-import javax.media.opengl.glu.GLU;
-import javax.media.opengl.glu.GLUtessellator;
-import javax.media.opengl.glu.GLUtessellatorCallbackAdapter;
 
 import org.apache.log4j.Logger;
 
 import processing.core.PApplet;
-import processing.core.PConstants;
+import processing.core.PFont;
+import processing.core.PGraphics;
 import processing.core.PVector;
 import processing.opengl.PGL;
 import processing.opengl.PGraphicsOpenGL;
@@ -53,6 +41,15 @@ public class Word {
 	static float RIPPLE_LENGTH = 400;	//length of ripple wave
 	static int RIPPLE_CYCLES = 1;		//number of wave cycles
 	static float RIPPLE_AMPLITUDE = 50;	//amplitude of deformation
+	static float RIPPLE_LOD = 2;		//maximum error of a ripple deforming a word as a patch (pixels), 0 to deform each vertex
+	
+	//tilt of the shadow and of the word, for draw() and the modes that tilt the vertices themselves
+	static final float SHADOW_ROTATION = PApplet.QUARTER_PI;
+	static final float FILL_ROTATION = SHADOW_ROTATION - PApplet.QUARTER_PI/4 - PApplet.QUARTER_PI;
+	static final float SHADOW_COS = (float)Math.cos(SHADOW_ROTATION);
+	static final float SHADOW_SIN = (float)Math.sin(SHADOW_ROTATION);
+	static final float FILL_COS = (float)Math.cos(FILL_ROTATION);
+	static final float FILL_SIN = (float)Math.sin(FILL_ROTATION);
 	
 	//fading state
 	static enum FadeState { FADE_IN, FADE_OUT, STABLE; }
@@ -77,24 +74,18 @@ public class Word {
 	float contractPeriod;				//period of contraction for animation
 	long contractStart;					//when did the contract start
 	
-	static ArrayList<Ripple> ripples = null;	//static ripples used by tessellator
-	
-	protected static FontRenderContext frc = new FontRenderContext(null, false, false);
-	
-	ArrayList<PVector> vertices;
-	ArrayList<int[]> contours;
-	GeneralPath outline;
-	
-    static protected GLU glu = new GLU();
-    
-    static protected GLUtessellator tessellator = GLU.gluNewTess();
-    static float TESSELLATOR_DETAIL = 3.0f;
-
-    static protected GLUtessellatorCallbackAdapter tessCallback;
-    int tessCount;
-    ArrayList<Float> tessInit;
-    float[] tessOrig;
-    float[] tess;
+	GlyphMesh[] glyphs;					//shared meshes of the word's glyphs
+	float[] glyphX;						//horizontal offset of each glyph
+	int vertexCount;					//number of unique vertices of the word's glyphs
+	float[] restX;						//horizontal position of the unique vertices (glyph after glyph), never deformed, null if released
+	float[] restY;						//vertical position of the unique vertices at rest
+	float[] tessY;						//deformed vertical position of the unique vertices
+	float[] tessZ;						//deformed depth of the unique vertices
+	float restMinX, restMaxX;			//horizontal extent of the vertices
+	float restMinY, restMaxY;			//vertical extent of the vertices at rest
+	boolean deformed;					//true if the deformed vertices moved away from the rest pose
+	volatile WordImage image;			//rest pose rasterized on the page preparation threads, null until ready
+	int arenaOffset, arenaLength;		//first vertex and number of vertices of the word in the text arena, while in view
     //FloatBuffer tessBuffer;
     //int tessNumTriangles;
 	//protected int tcVertexCount = 0;
@@ -111,6 +102,31 @@ public class Word {
 	 * @param value textual value
 	 */
 	public Word(PApplet parent, String value) {
+		this(parent, value, parent.g.textFont);
+	}
+	
+	/**
+	 * Constructor.
+	 * <p>The word is composed of shared glyph meshes from the given font
+	 * instead of the applet's current one, so words can be created away
+	 * from the animation thread.</p>
+	 * @param parent parent Processing applet
+	 * @param value textual value
+	 * @param font font to build the outline with
+	 */
+	public Word(PApplet parent, String value, PFont font) {
+		this(parent, value, glyphsOf(value, font));
+	}
+	
+	/**
+	 * Constructor.
+	 * <p>The word is composed of the given glyph meshes, one per character,
+	 * for example when the glyphs are read from a compiled page bundle.</p>
+	 * @param parent parent Processing applet
+	 * @param value textual value
+	 * @param glyphs meshes of the word's glyphs
+	 */
+	public Word(PApplet parent, String value, GlyphMesh[] glyphs) {
 		this.p = parent;
 		this.opacity = 1;
 		this.value = value;
@@ -130,9 +146,75 @@ public class Word {
 		this.contractPeriod = 100;
 		this.contractStart = 0;
 		
-		initControlPoints(value);
-		initOutline();
-		initTessellator();
+		initGlyphs(glyphs);
+	}
+	
+	/**
+	 * Get the shared meshes of the glyphs of a string.
+	 * @param str textual value
+	 * @param font font of the glyphs
+	 * @return one mesh per character
+	 */
+	static GlyphMesh[] glyphsOf(String str, PFont font) {
+		GlyphMesh[] glyphs = new GlyphMesh[str.length()];
+		for(int i = 0; i < str.length(); i++)
+			glyphs[i] = GlyphCache.get(font.getFont(), str.charAt(i));
+		return glyphs;
+	}
+	
+	/**
+	 * Compose the word from the shared meshes of its glyphs.
+	 * <p>Only the unique vertices of the glyphs are copied for the word,
+	 * the triangles are drawn through the glyphs' shared indices. The
+	 * vertices are copied when the word is first tessellated.</p>
+	 * @param glyphs meshes of the word's glyphs
+	 */
+	protected void initGlyphs(GlyphMesh[] glyphs) {
+		this.glyphs = glyphs;
+		glyphX = new float[glyphs.length];
+		
+		//line up the glyphs using their advance
+		float x = 0;
+		vertexCount = 0;
+		for(int i = 0; i < glyphs.length; i++) {
+			glyphX[i] = x;
+			x += glyphs[i].advance;
+			vertexCount += glyphs[i].vertexCount();
+		}
+	}
+	
+	/**
+	 * Check if the word has its deformed vertices.
+	 * @return true if tessellated
+	 */
+	public boolean isTessellated() { return restX != null; }
+	
+	/**
+	 * Make space for the deformed vertices, starting from the rest pose (flat).
+	 * <p>Compact glyphs are dequantized once here instead of every frame,
+	 * so the word's own vertices are floats in both formats.</p>
+	 */
+	public void tessellate() {
+		restX = new float[vertexCount];
+		restY = new float[vertexCount];
+		restMinX = restMinY = Float.MAX_VALUE;
+		restMaxX = restMaxY = -Float.MAX_VALUE;
+		int o = 0;
+		for(int g = 0; g < glyphs.length; g++) {
+			GlyphMesh glyph = glyphs[g];
+			for(int v = 0; v < glyph.vertexCount(); v++) {
+				float x = restX[o] = glyph.x(v) + glyphX[g];
+				float y = restY[o++] = glyph.y(v);
+				if (x < restMinX) restMinX = x;
+				if (x > restMaxX) restMaxX = x;
+				if (y < restMinY) restMinY = y;
+				if (y > restMaxY) restMaxY = y;
+			}
+		}
+		if (vertexCount == 0) restMinX = restMaxX = restMinY = restMaxY = 0;
+		tessY = restY.clone();
+		tessZ = new float[vertexCount];
+		deformed = false;
 	}
 	
 	/**
@@ -282,18 +364,23 @@ public class Word {
 	
 	/**
 	 * Draw.
+	 * @param kernel deformation kernel, with the ripples of the frame
 	 */
-	public void draw(ArrayList<Ripple> ripples) {
-		final float rotation = -PApplet.QUARTER_PI/4 - PApplet.QUARTER_PI;
-		
+	public void draw(DeformKernel kernel) {
+		//if fully transparent, nothing to do
+		if (opacity == 0) return;
+
+		updateTessellation(kernel);
+		draw();
+	}
+	
+	/**
+	 * Draw the vertices as they were last deformed.
+	 */
+	public void draw() {
 		//if fully transparent, nothing to do
 		if (opacity == 0) return;
 
-        if (!ripples.isEmpty())
-        	Word.ripples = ripples;
-        else
-        	Word.ripples = null;
-        
 		//save the fill color
 		int savedFill = p.g.fillColor;
 
@@ -301,547 +388,106 @@ public class Word {
 		p.pushMatrix();
 			p.translate(position.x, position.y);
 			
-			updateTessellation();
-			
 			//draw the word's shadow
 			p.fill(0, 20*opacity);
-			p.rotateX(PApplet.QUARTER_PI);
+			p.rotateX(SHADOW_ROTATION);
 			drawTessellation();
 			
 			//draw the word at the right opacity
 			p.fill(savedFill, p.alpha(savedFill)*opacity);
-			p.rotateX(rotation);
+			p.rotateX(FILL_ROTATION - SHADOW_ROTATION);	//from the shadow's tilt
 			drawTessellation();
 			p.fill(savedFill);
 
 		p.popMatrix();
 	}
 	
-	public void updateTessellation() {
-		float[] vertex = new float[3]; 
-		
-		for(int i = 0; i < tessOrig.length; i+=3) {
-		  vertex[0] = tessOrig[i];
-		  vertex[1] = tessOrig[i+1];
-		  vertex[2] = tessOrig[i+2];
-            
-		  if (contractFac != 0)
-           	contractVertex(vertex);
-
-          //add ripples
-          if (ripples != null)
-          	rippleVertex(vertex);
-          
-          tess[i] = vertex[0];
-          tess[i+1] = vertex[1];
-          tess[i+2] = vertex[2];
-		}
-	}
-	
-	public void drawTessellation() {
-		p.g.beginShape(PApplet.TRIANGLES); 
-		for(int i = 0; i < tess.length; i+=3)
-          p.g.vertex(tess[i], tess[i+1], tess[i+2]);
-		p.g.endShape();
-	}
-	
 	/**
-	 * Tessellate the text.
+	 * Draw the rest pose as a textured quad, when the word isn't deformed.
+	 * <p>Draws the vertices instead until the image is ready.</p>
 	 */
-	public void tessellate() {
-		//six element array received from the Java2D path iterator
-        float textPoints[] = new float[6];
-
-        //get the path iterator
-        PathIterator iter = outline.getPathIterator(null);
-
-        tessCount = 0;
-        GLU.gluTessBeginPolygon(tessellator, this);
-        // second param to gluTessVertex is for a user defined object that contains
-        // additional info about this point, but that's not needed for anything
-
-        float lastX = 0;
-        float lastY = 0;
-
-        // unfortunately the tessellator won't work properly unless a
-        // new array of doubles is allocated for each point. that bites ass,
-        // but also just reaffirms that in order to make things fast,
-        // display lists will be the way to go.
-        double vertex[];
-
-        while (!iter.isDone()) {
-            int type = iter.currentSegment(textPoints);
-            switch (type) {
-                case PathIterator.SEG_MOVETO:
-                    GLU.gluTessBeginContour(tessellator);
-
-                    vertex = new double[] {textPoints[0], textPoints[1], 0}; 
-
-                    //apply contract
-                    //if (contractFac != 0)
-                    //	contractVertex(vertex);
-                    
-                    //apply ripples
-                    //if (ripples != null)
-                    //	rippleVertex(vertex);
-                    
-                    GLU.gluTessVertex(tessellator, vertex, 0, this);
-                    
-                    lastX = textPoints[0];
-                    lastY = textPoints[1];
-                    
-                    break;
-
-                /*case PathIterator.SEG_QUADTO:   // 2 points
-                        
-                        for (int i = 1; i <= TESSELLATOR_DETAIL; i++) {
-                            float t = (float)(i/TESSELLATOR_DETAIL);
-                            vertex = new double[] {
-                                    p.g.bezierPoint(
-                                            lastX, 
-                                            lastX + ((textPoints[0]-lastX)*2/3), 
-                                            textPoints[2] + ((textPoints[0]-textPoints[2])*2/3), 
-                                            textPoints[2], 
-                                            t
-                                    ),
-                                    p.g.bezierPoint(
-                                            lastY, 
-                                            lastY + ((textPoints[1]-lastY)*2/3),
-                                            textPoints[3] + ((textPoints[1]-textPoints[3])*2/3), 
-                                            textPoints[3], 
-                                            t
-                                    ), 
-                                    0
-                            };
-                            
-                            //apply contract
-                            if (contractFac != 0)
-                            	contractVertex(vertex);
-
-                            //add ripples
-                            if (ripples != null)
-                            	rippleVertex(vertex);
-                            
-                            GLU.gluTessVertex(tessellator, vertex, 0, vertex);
-                        }
-                    
-                    lastX = textPoints[2];
-                    lastY = textPoints[3];
-                    
-                    break;*/
-                    
-                case PathIterator.SEG_CUBICTO:
-                	
-                	for (int i = 1; i <= TESSELLATOR_DETAIL; i++) {
-                        float t = (float)(i/TESSELLATOR_DETAIL);       
-                        vertex = new double[] {
-                        		p.g.bezierPoint(lastX, textPoints[0], textPoints[2], textPoints[4], t),
-                        		p.g.bezierPoint(lastY, textPoints[1], textPoints[3], textPoints[5], t),
-                        		0
-                        }; 
-                        
-                        //apply contract
-                        //if (contractFac != 0)
-                        //	contractVertex(vertex);
-
-                        //add ripples
-                        //if (ripples != null)
-                        //	rippleVertex(vertex);
-                        
-                        GLU.gluTessVertex(tessellator, vertex, 0, vertex);
-                    }
-                
-	                lastX = textPoints[4];
-	                lastY = textPoints[5];
-	                
-                	break;
+	public void drawImage() {
+		//if fully transparent, nothing to do
+		if (opacity == 0) return;
+		
+		WordImage image = this.image;
+		if (image == null) {
+			draw();
+			return;
+		}
+		
 
-                case PathIterator.SEG_CLOSE:
-                    GLU.gluTessEndContour(tessellator);
-                    
-                    break;
-            }
-            
-            iter.next();
-        }
-        
-        
-        GLU.gluTessEndPolygon(tessellator);
+		//save the tint, the image is tinted with the fill color
+		PGraphics g = p.g;
+		int fill = g.fillColor;
+		boolean savedTint = g.tint;
+		int savedTintColor = g.tintColor;
+		
+		p.pushMatrix();
+			p.translate(position.x, position.y);
+			
+			//draw the word's shadow
+			p.tint(0, 20*opacity);
+			p.rotateX(SHADOW_ROTATION);
+			p.image(image.image, image.left, image.top, image.width, image.height);
+			
+			//draw the word at the right opacity
+			p.tint(fill, p.alpha(fill)*opacity);
+			p.rotateX(FILL_ROTATION - SHADOW_ROTATION);	//from the shadow's tilt
+			p.image(image.image, image.left, image.top, image.width, image.height);
+			
+			if (savedTint) p.tint(savedTintColor);
+			else p.noTint();
+			
+		p.popMatrix();
 	}
 	
 	/**
-	 * Apply ripple deformation to a vertex.
-	 * @param vertex the vertex to deform
+	 * Deform the vertices with the contraction and the ripples.
+	 * @param kernel deformation kernel, with the ripples of the frame
 	 */
-	public void rippleVertex(double[] vertex) {
-		//get the vertex absolute position
-		double vx = position.x + vertex[0];
-		double vy = position.y + p.textAscent() + vertex[1];
-
-		//for each ripple
-		for(Ripple r : ripples) {
-			//get the distance between the vertex and the edge of the ripple
-			double distSq = ((vx-r.center.x)*(vx-r.center.x) + (vy-r.center.y)*(vy-r.center.y))/* - (r.radiusSq)*/;
-			distSq = Math.sqrt(distSq);
-			distSq -= r.radius;
-			if (distSq < 0) distSq *= -1;
-			//if the distance square is less than the threshold, apply ripple force
-			if (distSq < RIPPLE_LENGTH)
-				vertex[2] += Math.sin((distSq/RIPPLE_LENGTH)*RIPPLE_CYCLES*2*PApplet.PI) * RIPPLE_AMPLITUDE * (1-distSq/RIPPLE_LENGTH);
-		}
+	public void updateTessellation(DeformKernel kernel) {
+		if (restX == null) tessellate();
+		kernel.deform(this);
 	}
-
+	
 	/**
-	 * Apply ripple deformation to a vertex.
-	 * @param vertex the vertex to deform
+	 * Get the number of triangles of the word's tessellation.
+	 * @return number of triangles
 	 */
-	public void rippleVertex(float[] vertex) {
-		//get the vertex absolute position
-		float vx = position.x + vertex[0];
-		float vy = position.y + p.textAscent() + vertex[1];
-
-		//for each ripple
-		for(Ripple r : ripples) {
-			//get the distance between the vertex and the edge of the ripple
-			double distSq = ((vx-r.center.x)*(vx-r.center.x) + (vy-r.center.y)*(vy-r.center.y))/* - (r.radiusSq)*/;
-			distSq = Math.sqrt(distSq);
-			distSq -= r.radius;
-			if (distSq < 0) distSq *= -1;
-			//if the distance square is less than the threshold, apply ripple force
-			if (distSq < RIPPLE_LENGTH)
-				vertex[2] += Math.sin((distSq/RIPPLE_LENGTH)*RIPPLE_CYCLES*2*PApplet.PI) * RIPPLE_AMPLITUDE * (1-distSq/RIPPLE_LENGTH);
-		}
+	public int triangleCount() {
+		int count = 0;
+		for(GlyphMesh g : glyphs)
+			count += g.triangleCount();
+		return count;
 	}
 	
 	/**
-	 * Apply contract deformation to a vertex
-	 * @param vertex the vertex to deform
+	 * Get the number of unique vertices of the word's tessellation.
+	 * @return number of vertices
 	 */
-	public void contractVertex(double[] vertex) {
-		double vy = position.y + p.textAscent() + vertex[1];
-		double dy = vy - contractFrom.y;
-		if (dy < 0) dy *= -1;
-		
-		double vx = position.x + vertex[0];
-		double dx = vx - contractFrom.x;
-		if (dx < 0) dx *= -1;
-		
-		//deform y position of the vertex
-		vertex[1] *= 1 - (dx>contractPeriod?0:(Math.cos(dx/contractPeriod*PConstants.PI)+1)/2) * (contractFac>1?1:contractFac);
-	}
-
+	public int vertexCount() { return vertexCount; }
+	
 	/**
-	 * Apply contract deformation to a vertex
-	 * @param vertex the vertex to deform
+	 * Release the deformed vertices, when the word is far out of view.
+	 * <p>They are tessellated again when the word is drawn.</p>
 	 */
-	public void contractVertex(float[] vertex) {
-		float vy = position.y + p.textAscent() + vertex[1];
-		float dy = vy - contractFrom.y;
-		if (dy < 0) dy *= -1;
-		
-		float vx = position.x + vertex[0];
-		float dx = vx - contractFrom.x;
-		if (dx < 0) dx *= -1;
-		
-		//deform y position of the vertex
-		vertex[1] *= 1 - (dx>contractPeriod?0:(Math.cos(dx/contractPeriod*PConstants.PI)+1)/2) * (contractFac>1?1:contractFac);
-	}
+	public void release() { restX = restY = tessY = tessZ = null; image = null; }
 	
-    /**
-     * This method uses the Java AWT Font methods to create a vector outline of 
-     * the letters based on the current positions.
-     * @param str string to generate control points from
-     */	
-	public void initControlPoints(String str) {
-       	//make space for the control points
-    	vertices = new ArrayList<PVector>();
-            
-    	// create a list to store the contours
-    	contours = new ArrayList<int[]>();
-            
-    	// vertex array index (used to associate more than one contour point
-    	// with the same vertex)
-    	int vertexIndex = 0;
-    
-    	// a temporary list to store vertex indices for each contour (once 
-    	// the contour is closed, this list will be converted to an array
-    	// and stored into the Contour list.
-    	ArrayList<Integer> tmpContour = new ArrayList<Integer>();
-                            
-    	// used to receive the list of points from PathIterator.currentSegment()
-    	float points[] = new float[6];  
-    	
-    	// used to receive the segment type from PathIterator.currentSegment()
-    	// segmentType can be SEG_MOVETO, SEG_LINETO, SEG_QUADTO, SEG_CLOSE
-    	int segmentType = 0; 
-    	
-    	// used to remember the previously calculated Anchor and ControlPoint.
-    	// for a more detailed description of what an anchor and control point are,
-    	// see the architecture document.
-    	PVector lastAnchor = new PVector();
-            
-    	// get the Shape for this glyph
-    	GlyphVector gv = p.g.textFont.getFont().createGlyphVector( frc, str );
-    	Shape outline = gv.getOutline();
-            
-    	// store the glyph's logical bounds information
-    	//Rectangle2D logicalBounds = gv.getLogicalBounds();
-            
-    	// no flattening done at the moment, just iterate through all the 
-    	// segments of the outline.  For more details see Javadoc for
-    	// java.awt.geom.PathIterator
-    	PathIterator pit = outline.getPathIterator(null);
-    
-    	while ( !pit.isDone() ) {         
-    		segmentType = pit.currentSegment( points ); 
-                            
-    		switch( segmentType ) {
-    			case PathIterator.SEG_MOVETO:
-					// start a new tmpContour vector
-					tmpContour = new ArrayList<Integer>();
-					// get the starting point for this contour      
-					PVector startingPoint = new PVector( (float)points[0], (float)points[1] );
-					// store the point in the list of vertices
-					vertices.add( new PVector( startingPoint.x, startingPoint.y ) );
-					// store this point in the current tmpContour and increment
-					// the vertices index
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-					// update temporary variables used for backtracking
-					lastAnchor = startingPoint;
-					break;
-                                    
-    			case PathIterator.SEG_LINETO:
-					// then, we must convert the line to a curve
-					// in order to allow smooth deformations
-					PVector endPoint = new PVector( (float)points[0], (float)points[1] );
-					PVector midPoint = new PVector( (lastAnchor.x + endPoint.x)/2, 
-					                                (lastAnchor.y + endPoint.y)/2  );
-					//vertices.add( new PVector( midPoint.x, midPoint.y ) );
-					
-					//the first control point is 2/3 the distance between
-					//the last anchor and the mid point
-					vertices.add( new PVector( lastAnchor.x + (midPoint.x-lastAnchor.x)*2/3,
-							  				   lastAnchor.y + (midPoint.y-lastAnchor.y)*2/3) );
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-
-					//the secnd control point is 1/3 the distance between
-					//the the mid point and the end point
-					vertices.add( new PVector( midPoint.x + (endPoint.x-midPoint.x)/3,
-							  				   midPoint.y + (endPoint.y-midPoint.y)/3) );
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-					
-					// finally, we must add the endPoint twice to the contour
-					// to preserve sharp corners
-					vertices.add( endPoint );
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-					
-					// update variables used for backtracking
-					lastAnchor = endPoint;
-					break;
-                                    
-    			case PathIterator.SEG_QUADTO:
-					PVector controlPoint = new PVector( (float)points[0], (float)points[1] );
-					PVector anchorPoint = new PVector( (float)points[2], (float)points[3] );
-					
-					// Store control points
-					//vertices.add( new PVector( controlPoint.x, controlPoint.y ) );
-					vertices.add( new PVector( lastAnchor.x + (controlPoint.x-lastAnchor.x)*2/3,
-	  						  				   lastAnchor.y + (controlPoint.y-lastAnchor.y)*2/3) );					
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-
-					vertices.add( new PVector( controlPoint.x + (anchorPoint.x-controlPoint.x)/3,
-											   controlPoint.y + (anchorPoint.y-controlPoint.y)/3) );					
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-	
-					// Store anchor point.
-					vertices.add( new PVector( anchorPoint.x, anchorPoint.y ) );
-					tmpContour.add( vertexIndex );
-					vertexIndex++;
-					
-					// update temporary variables used for backtracking                                     
-					lastAnchor = anchorPoint;
-					break;  
-				
-    			case PathIterator.SEG_CLOSE:
-					// A SEG_CLOSE signifies the end of a contour, therefore
-					// convert tmpContour into a new array of correct size
-					int contour[] = new int[tmpContour.size()];
-					Iterator<Integer> it = tmpContour.iterator();
-					int i = 0;
-					while( it.hasNext() ) {
-					        contour[i] = it.next();
-					        i++;    
-					}
-					
-					// add the newly created contour array to the contour list
-					contours.add(contour);
-					break;
-                                    
-    			case PathIterator.SEG_CUBICTO:        
-					break;
-    		} // end switch 
-    
-    		pit.next();
-    	} // end while		
+	public void drawTessellation() {
+		p.g.beginShape(PApplet.TRIANGLES); 
+		int base = 0;
+		for(int g = 0; g < glyphs.length; g++) {
+			GlyphMesh glyph = glyphs[g];
+			for(int i = 0; i < glyph.indices.length; i++) {
+				int v = base + glyph.index(i);
+				p.g.vertex(restX[v], tessY[v], tessZ[v]);
+			}
+			base += glyph.vertexCount();
+		}
+		p.g.endShape();
 	}
 	
-    /**
-     * Initialize the outline from the previous generated control points.
-     */
-    public void initOutline() {            	
-    	// create a new GeneralPath to hold the vector outline
-        GeneralPath gp = new GeneralPath();
-        // get an iterator for the list of contours
-        Iterator<int[]> it = contours.iterator();
-
-        // process each contour
-        while (it.hasNext()) {
-
-            // get the list of vertices for this contour
-            int contour[] = it.next();
-
-            PVector firstPoint = vertices.get(contour[0]);
-            // move the pen to the beginning of the contour
-            gp.moveTo((float) firstPoint.x, (float) firstPoint.y);
-            
-            // generate all the quads forming the line
-            //for (int i = 1; i < contour.length-1; i+=2) {
-            //    PVector controlPoint = vertices.get(contour[i]);
-            //    PVector anchorPoint = vertices.get(contour[i + 1]);
-
-            //    gp.quadTo((float) controlPoint.x, (float) controlPoint.y,
-            //              (float) anchorPoint.x, (float) anchorPoint.y);                   
-            //}
-            
-            // generate all the beziers forming the outline
-            for (int i = 1; i < contour.length-1; i+=3) {
-                PVector controlPoint1 = vertices.get(contour[i]);
-                PVector controlPoint2 = vertices.get(contour[i+1]);
-                PVector anchorPoint = vertices.get(contour[i+2]);
-
-                gp.curveTo((float) controlPoint1.x, (float) controlPoint1.y,
-                		   (float) controlPoint2.x, (float) controlPoint2.y,
-                           (float) anchorPoint.x, (float) anchorPoint.y);                   
-            }
-            
-            // close the path
-            gp.closePath();
-
-        } // end while 
-
-        // cache it
-        outline = gp;	
-    }	
-	
-    /**
-     * Initialize the tessellator.
-     */
-    public void initTessellator() {
-    	tessCount = 0;
-    	tessInit = new ArrayList<Float>();
-    	
-    	//use init tessellator to build the first pass
-    	tessCallback = new TessCallback();
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_BEGIN_DATA, tessCallback); 
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_END_DATA, tessCallback); 
-        GLU.gluTessCallback(tessellator, GLU.GLU_TESS_VERTEX_DATA, tessCallback); 
-        GLU.gluTessCallback(tessellator, GLU.GLU_TESS_COMBINE, tessCallback); 
-        GLU.gluTessCallback(tessellator, GLU.GLU_TESS_ERROR_DATA, tessCallback);
-        GLU.gluTessCallback(tessellator, GLU.GLU_TESS_EDGE_FLAG_DATA, tessCallback);
-        
-        //tessellate
-        tessellate();
-
-        //copy tessellation to buffers
-        tessOrig = new float[tessInit.size()];
-        tess = new float[tessInit.size()];
-        for(int i = 0; i < tessInit.size(); i++) {
-        	tessOrig[i] = tessInit.get(i);
-            tess[i] = tessInit.get(i);
-        }
-
-        //tessBuffer = ByteBuffer.allocateDirect(4 * tess.length).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        //tessBuffer.put(tess);
-        //tessBuffer.rewind();
-        
-        //setup update tessellator for future calls
-    	//tessCallback = new TessUpdateCallback();
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_BEGIN_DATA, tessCallback); 
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_END_DATA, tessCallback); 
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_VERTEX_DATA, tessCallback); 
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_COMBINE, tessCallback); 
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_ERROR_DATA, tessCallback);
-        //GLU.gluTessCallback(tessellator, GLU.GLU_TESS_EDGE_FLAG_DATA, tessCallback);
-        
-        //clean up
-        tessInit.clear();
-        tessInit = null;
-    }
-
-    /**
-     * This tessellator callback uses native Processing drawing functions to 
-     * initialize the tessellation data.
-     */
-    public class TessCallback extends GLUtessellatorCallbackAdapter {
-    	
-    	public void beginData(int type, Object polygonData) {}
-        public void endData(Object polygonData) {}
-        
-        public void vertexData(Object vertexData, Object polygonData) {
-            if (vertexData instanceof double[]) {
-                double[] d = (double[]) vertexData;
-                if (d.length != 3) {
-                    throw new RuntimeException("TessCallback vertex() data " +
-                    "isn't length 3");
-                }
-
-                Word w = (Word)polygonData;
-                w.tessInit.add((float)d[0]);
-                w.tessInit.add((float)d[1]);
-                w.tessInit.add((float)d[2]);
-                w.tessCount+=3;
-                
-            } else {
-                throw new RuntimeException("TessCallback vertex() data not understood");
-            }
-        }
-
-        public void errorData(int errnum, Object polygonData) {
-            String estring = glu.gluErrorString(errnum);
-            throw new RuntimeException("Tessellation Error: " + estring);
-        }
-
-        /**
-         * Implementation of the GLU_TESS_COMBINE callback.
-         * @param coords is the 3-vector of the new vertex
-         * @param data is the vertex data to be combined, up to four elements.
-         * This is useful when mixing colors together or any other
-         * user data that was passed in to gluTessVertex.
-         * @param weight is an array of weights, one for each element of "data"
-         * that should be linearly combined for new values.
-         * @param outData is the set of new values of "data" after being
-         * put back together based on the weights. it's passed back as a
-         * single element Object[] array because that's the closest
-         * that Java gets to a pointer.
-         */
-        public void combine(double[] coords, Object[] data, float[] weight, Object[] outData) {
-            double[] vertex = new double[coords.length];
-            vertex[0] = coords[0];
-            vertex[1] = coords[1];
-            vertex[2] = coords[2];
-            
-            outData[0] = vertex;
-        }
-        
-        public void edgeFlagData (boolean flag, Object data) {}
-    }
-    
     /**
      * Get the word's string representation.
      */
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.apache.log4j.Logger;
+
+import processing.core.PApplet;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.PShader;
+
+/**
+ * Draws the deformed words of a page with a single OpenGL call.
+ * <p>Instead of moving and tilting the matrix for each word and drawing its
+ * shadow and its fill as two shapes, the corners of the triangles are moved
+ * and tilted here, on the animation thread once the words are deformed, and
+ * all the words go in one stream of vertices with their colors set per
+ * vertex. The shadow and the fill of each word stay in the same order as
+ * when they are drawn on their own. The stream is uploaded straight from
+ * its direct buffers and drawn with the shaders in data/shaders, without
+ * going through the renderer's shapes.</p>
+ * <p>The buffers only grow when a page has more corners in view than they
+ * hold, so their size follows the screen and not the length of the
+ * text.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class WordBatch {
+
+	static Logger logger = Logger.getLogger(WordBatch.class);
+
+	static final String VERTEX_SHADER = "shaders/batch.vert";		//vertex shader, in the data folder
+	static final String FRAGMENT_SHADER = "shaders/batch.frag";		//fragment shader, in the data folder
+
+	PGraphicsOpenGL g;			//renderer
+	PShader shader;				//the shader
+	int[] buffers;				//vertex buffers of the positions and the colors, 0 until the first draw
+	float[] matrix;				//projection and modelview matrix, by columns
+	FloatBuffer vertices;		//position of each corner (x,y,z)
+	ByteBuffer colors;			//color of each corner (r,g,b,a)
+	int capacity;				//number of corners the buffers hold
+	int count;					//number of corners added since begin()
+	boolean drawing;			//true between begin() and end()
+	int fill;					//fill color of the words, at full opacity
+
+	/**
+	 * Constructor.
+	 * @param parent parent Processing applet, drawing with OpenGL
+	 */
+	public WordBatch(PApplet parent) {
+		this.g = (PGraphicsOpenGL)parent.g;
+		this.shader = new PShader(parent, VERTEX_SHADER, FRAGMENT_SHADER);
+		this.buffers = new int[2];
+		this.matrix = new float[16];
+		allocate(0);
+	}
+
+	/**
+	 * Start a stream, with the current fill color for the words.
+	 */
+	public void begin() {
+		fill = g.fillColor;
+		count = 0;
+		drawing = true;
+	}
+
+	/**
+	 * Add the shadow and the fill of a word, as it was last deformed.
+	 * @param w the word
+	 */
+	public void add(Word w) {
+		if (!drawing) throw new IllegalStateException("WordBatch.add() called outside of begin() and end().");
+
+		//if fully transparent, nothing to do
+		if (w.opacity == 0) return;
+
+		//grow the buffers if the word doesn't fit
+		int half = w.triangleCount()*3;
+		if (count + 2*half > capacity) {
+			grow(Math.max(count + 2*half, capacity*2));
+			logger.debug("Grew the word batch to " + capacity*(3*4 + 4)/1024 + "KB.");
+		}
+
+		//the shadow, then the word at the right opacity
+		add(w, count, Word.SHADOW_COS, Word.SHADOW_SIN);
+		fill(count, half, 0, 20*w.opacity);
+		count += half;
+		add(w, count, Word.FILL_COS, Word.FILL_SIN);
+		fill(count, half, fill, (fill >>> 24)*w.opacity);
+		count += half;
+	}
+
+	/**
+	 * Write the corners of a word's triangles, tilted around its origin.
+	 * @param w the word
+	 * @param offset first corner
+	 * @param cos cosine of the tilt
+	 * @param sin sine of the tilt
+	 */
+	void add(Word w, int offset, float cos, float sin) {
+		final FloatBuffer out = vertices;
+		final float ox = w.position.x;
+		final float oy = w.position.y;
+		final float[] x = w.restX;
+		final float[] y = w.tessY;
+		final float[] z = w.tessZ;
+		int o = offset*3;
+		int base = 0;
+		for(int i = 0; i < w.glyphs.length; i++) {
+			GlyphMesh glyph = w.glyphs[i];
+			for(int j = 0; j < glyph.indices.length; j++) {
+				int v = base + glyph.index(j);
+				out.put(o++, ox + x[v]);
+				out.put(o++, oy + y[v]*cos - z[v]*sin);
+				out.put(o++, y[v]*sin + z[v]*cos);
+			}
+			base += glyph.vertexCount();
+		}
+	}
+
+	/**
+	 * Set the color of a range of corners.
+	 * @param offset first corner
+	 * @param count number of corners
+	 * @param rgb color, the alpha is ignored
+	 * @param alpha alpha, from 0 to 255
+	 */
+	void fill(int offset, int count, int rgb, float alpha) {
+		final ByteBuffer out = colors;
+		//the bytes in memory are red, green, blue then alpha whatever the byte order
+		int r = (rgb >> 16) & 0xff;
+		int g = (rgb >> 8) & 0xff;
+		int b = rgb & 0xff;
+		int a = Math.min(255, (int)alpha);
+		int rgba = out.order() == ByteOrder.LITTLE_ENDIAN ?
+				a << 24 | b << 16 | g << 8 | r :
+				r << 24 | g << 16 | b << 8 | a;
+		for(int c = offset*4; c < (offset+count)*4; c += 4)
+			out.putInt(c, rgba);
+	}
+
+	/**
+	 * Upload the stream and draw it.
+	 */
+	public void end() {
+		if (!drawing) return;
+		drawing = false;
+		if (count == 0) return;
+		PGL pgl = g.pgl;
+
+		//draw what the renderer has pending first
+		g.flush();
+		if (buffers[0] == 0) pgl.glGenBuffers(2, buffers, 0);
+
+		shader.start();
+
+		//the renderer's current projection and modelview
+		g.projmodelview.get(matrix);
+		shader.set4x4MatUniform(shader.getUniformLocation("projmodelviewMatrix"), ArenaRenderer.transpose(matrix));
+
+		//upload the positions and the colors of the corners added
+		int vertexLoc = shader.getAttribLocation("inVertex");
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, buffers[0]);
+		pgl.glBufferData(PGL.GL_ARRAY_BUFFER, count*3*4, vertices, PGL.GL_STREAM_DRAW);
+		pgl.glEnableVertexAttribArray(vertexLoc);
+		pgl.glVertexAttribPointer(vertexLoc, 3, PGL.GL_FLOAT, false, 0, 0);
+
+		int colorLoc = shader.getAttribLocation("inColor");
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, buffers[1]);
+		pgl.glBufferData(PGL.GL_ARRAY_BUFFER, count*4, colors, PGL.GL_STREAM_DRAW);
+		pgl.glEnableVertexAttribArray(colorLoc);
+		pgl.glVertexAttribPointer(colorLoc, 4, PGL.GL_UNSIGNED_BYTE, true, 0, 0);
+
+		pgl.glDrawArrays(PGL.GL_TRIANGLES, 0, count);
+
+		pgl.glDisableVertexAttribArray(vertexLoc);
+		pgl.glDisableVertexAttribArray(colorLoc);
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, 0);
+		shader.stop();
+	}
+
+	/**
+	 * Allocate the buffers.
+	 * @param capacity number of corners
+	 */
+	void allocate(int capacity) {
+		this.capacity = capacity;
+		vertices = ByteBuffer.allocateDirect(capacity*3*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		colors = ByteBuffer.allocateDirect(capacity*4).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Grow the buffers, keeping the corners already added.
+	 * @param capacity number of corners
+	 */
+	void grow(int capacity) {
+		FloatBuffer oldVertices = vertices;
+		ByteBuffer oldColors = colors;
+		allocate(capacity);
+		oldVertices.limit(count*3);
+		vertices.put(oldVertices).clear();
+		oldColors.limit(count*4);
+		colors.put(oldColors).clear();
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * The rest pose of a word, rasterized to draw it as a textured quad.
+ * <p>When text.render.mode is hybrid, the words that no ripple reaches and
+ * that aren't contracted are drawn as one quad for the shadow and one for
+ * the fill, tinted like the meshes, instead of all their triangles. The
+ * images are filled from the same triangles as the meshes, in white with
+ * the coverage as alpha, so the two look the same and a word can switch
+ * from one to the other at any frame.</p>
+ * <p>Each glyph is rasterized once for each of a few positions between two
+ * pixels, and the words are put together from the glyphs' images without
+ * resampling them. The images of the lines in view are made on the page
+ * preparation threads, when a page is built and when lines scroll into
+ * view, and the words are drawn as meshes until theirs is ready. The
+ * images of the glyphs are kept as long as their meshes are.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class WordImage {
+
+	static float SCALE = 1;				//pixels of the image per unit of the word, more for sharper words up close
+	static final int PADDING = 1;		//transparent pixels around the word, so the edges are smoothed
+	static final int PHASES = 4;		//positions between two pixels each glyph is rasterized at
+
+	//images of the glyphs at each position between two pixels, by mesh, dropped with the meshes
+	static Map<GlyphMesh, GlyphImage[]> glyphs = Collections.synchronizedMap(new WeakHashMap<GlyphMesh, GlyphImage[]>());
+
+	PImage image;				//the image, white with the word's coverage as alpha
+	float left, top;			//position of the quad from the word's origin
+	float width, height;		//size of the quad
+
+	/**
+	 * Constructor.
+	 * @param image the image
+	 * @param left left edge of the image from the word's origin (pixels)
+	 * @param top top edge of the image from the word's origin (pixels)
+	 */
+	WordImage(PImage image, int left, int top) {
+		this.image = image;
+		this.left = left/SCALE;
+		this.top = top/SCALE;
+		this.width = image.width/SCALE;
+		this.height = image.height/SCALE;
+	}
+
+	/**
+	 * Rasterize the rest pose of a word.
+	 * <p>Only uses the word's glyphs, so it can be called on any thread,
+	 * tessellated or not.</p>
+	 * @param w the word
+	 * @return the image
+	 */
+	public static WordImage create(Word w) {
+		//find where each glyph falls between two pixels, and the extent of their images
+		GlyphImage[] images = new GlyphImage[w.glyphs.length];
+		int[] pixels = new int[w.glyphs.length];
+		int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+		for(int g = 0; g < w.glyphs.length; g++) {
+			float x = w.glyphX[g]*SCALE;
+			int pixel = (int)Math.floor(x);
+			int phase = Math.round((x - pixel)*PHASES);
+			if (phase == PHASES) { pixel++; phase = 0; }
+
+			GlyphImage glyph = images[g] = glyph(w.glyphs[g], phase);
+			pixels[g] = pixel;
+			if (glyph.image == null) continue;
+			left = Math.min(left, pixel + glyph.left);
+			top = Math.min(top, glyph.top);
+			right = Math.max(right, pixel + glyph.left + glyph.image.getWidth());
+			bottom = Math.max(bottom, glyph.top + glyph.image.getHeight());
+		}
+
+		//a word without triangles has an empty image
+		if (left > right) {
+			PImage empty = new PImage(1, 1, PApplet.ARGB);
+			return new WordImage(empty, 0, 0);
+		}
+
+		int width = right - left;
+		int height = bottom - top;
+		BufferedImage raster = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2 = raster.createGraphics();
+		for(int g = 0; g < images.length; g++)
+			if (images[g].image != null)
+				g2.drawImage(images[g].image, pixels[g] + images[g].left - left, images[g].top - top, null);
+		g2.dispose();
+
+		//the renderer makes a texture of the pixels the first time the image is drawn
+		PImage image = new PImage(width, height, PApplet.ARGB);
+		raster.getRGB(0, 0, width, height, image.pixels, 0, width);
+		return new WordImage(image, left, top);
+	}
+
+	/**
+	 * Rasterize the words of a range of lines that don't have an image yet.
+	 * <p>The lines are done in parallel when called on a fork-join pool.</p>
+	 * @param lines lines of words
+	 * @param first first line
+	 * @param last line after the last one
+	 */
+	public static void prepare(Word[][] lines, int first, int last) {
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(Math.max(0, last-first));
+		for(int l = first; l < last; l++) {
+			final Word[] line = lines[l];
+			tasks.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					for(Word w : line)
+						if (w.image == null) w.image = create(w);
+				}
+			});
+		}
+
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(tasks);
+		else
+			for(RecursiveAction task : tasks)
+				task.invoke();
+	}
+
+	/**
+	 * Get the image of a glyph, rasterizing it the first time it's needed.
+	 * @param mesh mesh of the glyph
+	 * @param phase position between two pixels, from 0 to PHASES-1
+	 * @return the image of the glyph
+	 */
+	static GlyphImage glyph(GlyphMesh mesh, int phase) {
+		GlyphImage[] phases;
+		synchronized(glyphs) {
+			phases = glyphs.get(mesh);
+			if (phases == null) glyphs.put(mesh, phases = new GlyphImage[PHASES]);
+		}
+
+		//the threads needing the same glyph wait for the first one to rasterize it
+		synchronized(phases) {
+			if (phases[phase] == null) phases[phase] = new GlyphImage(mesh, (float)phase/PHASES);
+			return phases[phase];
+		}
+	}
+
+	/**
+	 * The rasterized triangles of a glyph, in white with the coverage as alpha.
+	 */
+	static class GlyphImage {
+		BufferedImage image;	//the image, null if the glyph has no triangles
+		int left, top;			//position of the image from the glyph's origin (pixels)
+
+		/**
+		 * Constructor.
+		 * @param mesh mesh of the glyph
+		 * @param shift fraction of a pixel to move the glyph right by
+		 */
+		GlyphImage(GlyphMesh mesh, float shift) {
+			if (mesh.triangleCount() == 0) return;
+
+			//fill all the triangles as one path, so their shared edges don't show
+			Path2D.Float path = new Path2D.Float();
+			for(int i = 0; i+2 < mesh.indices.length; i += 3) {
+				int a = mesh.index(i);
+				int b = mesh.index(i+1);
+				int c = mesh.index(i+2);
+				path.moveTo(mesh.x(a), mesh.y(a));
+				path.lineTo(mesh.x(b), mesh.y(b));
+				path.lineTo(mesh.x(c), mesh.y(c));
+				path.closePath();
+			}
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+			for(int v = 0; v < mesh.vertexCount(); v++) {
+				minX = Math.min(minX, mesh.x(v));
+				minY = Math.min(minY, mesh.y(v));
+				maxX = Math.max(maxX, mesh.x(v));
+				maxY = Math.max(maxY, mesh.y(v));
+			}
+
+			left = (int)Math.floor(minX*SCALE) - PADDING;
+			top = (int)Math.floor(minY*SCALE) - PADDING;
+			int width = (int)Math.ceil(maxX*SCALE + shift) + PADDING - left;
+			int height = (int)Math.ceil(maxY*SCALE) + PADDING - top;
+
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g2 = image.createGraphics();
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g2.translate(shift - left, -top);
+			g2.scale(SCALE, SCALE);
+			g2.setColor(Color.WHITE);
+			g2.fill(path);
+			g2.dispose();
+		}
+	}
+}
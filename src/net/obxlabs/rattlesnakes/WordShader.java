@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) <2015>  <Jason Lewis>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the BSD 3 clause with added Attribution clause license.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   BSD 3 clause with added Attribution clause License for more details.
+ */
+
+package net.obxlabs.rattlesnakes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import processing.core.PApplet;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.PShader;
+
+/**
+ * Deforms the words on the graphics card.
+ * <p>When text.render.mode is shader, the rest poses of the lines in view
+ * are uploaded to a vertex buffer, and the vertex shader in data/shaders
+ * deforms them with the contraction and the ripples, with the same wave as
+ * DeformKernel, then tilts them like Word.draw(). The ripples are passed
+ * once per frame and the position, contraction and color of each word
+ * before it's drawn, so the work left on the CPU for a frame doesn't grow
+ * with the number of vertices. The shader takes up to MAX_RIPPLES ripples,
+ * the others are left out.</p>
+ * <p>The shader is bound from begin() to end(), the words are drawn in
+ * between without going through the renderer's shapes. The rest poses are
+ * only uploaded again when the lines in view change.</p>
+ *
+ * $LastChangedRevision$
+ * $LastChangedDate$
+ * $LastChangedBy$
+ */
+public class WordShader {
+
+	static Logger logger = Logger.getLogger(WordShader.class);
+
+	static final int MAX_RIPPLES = 16;							//most ripples the shader takes, must match deform.vert
+	static final int WINDOWS = 2;								//sets of lines kept uploaded, for the page and the one it changes to
+	static final String VERTEX_SHADER = "shaders/deform.vert";		//vertex shader, in the data folder
+	static final String FRAGMENT_SHADER = "shaders/deform.frag";	//fragment shader, in the data folder
+
+	PGraphicsOpenGL g;			//renderer
+	PShader shader;				//the shader
+	float[] ripples;			//center and radius of each ripple
+	float[] matrix;				//projection and modelview matrix, by columns
+	Window[] windows;			//lines whose rest poses are uploaded
+	FloatBuffer rests;			//rest poses of the lines to upload
+	int frame;					//number of times begin() was called, to find the least recently used window
+	boolean drawing;			//true between begin() and end()
+	int vertexLoc;				//location of the rest position of the vertices
+	int positionLoc;			//location of the word's position
+	int contractionLoc;			//location of the word's contraction
+	int tiltLoc;				//location of the word's tilt
+	int tintLoc;				//location of the word's color
+
+	/**
+	 * Constructor.
+	 * @param parent parent Processing applet, drawing with OpenGL
+	 */
+	public WordShader(PApplet parent) {
+		this.g = (PGraphicsOpenGL)parent.g;
+		this.shader = new PShader(parent, VERTEX_SHADER, FRAGMENT_SHADER);
+		this.ripples = new float[MAX_RIPPLES*3];
+		this.matrix = new float[16];
+		this.windows = new Window[WINDOWS];
+		for(int i = 0; i < WINDOWS; i++)
+			windows[i] = new Window();
+		this.rests = FloatBuffer.allocate(0);
+
+		if (RipplePool.CAPACITY > MAX_RIPPLES)
+			logger.warn("The shader only deforms the words with " + MAX_RIPPLES + " of the " +
+					RipplePool.CAPACITY + " ripples of text.ripple.max.");
+	}
+
+	/**
+	 * Start drawing words, with the ripples and the font ascent of the frame.
+	 * <p>Binds the shader until end() is called, nothing else can be drawn
+	 * in between.</p>
+	 * @param ripples active ripples
+	 * @param ascent ascent of the current font
+	 */
+	public void begin(List<Ripple> ripples, float ascent) {
+		int rippleCount = Math.min(ripples.size(), MAX_RIPPLES);
+		for(int i = 0; i < rippleCount; i++) {
+			Ripple r = ripples.get(i);
+			this.ripples[i*3] = r.center.x;
+			this.ripples[i*3+1] = r.center.y;
+			this.ripples[i*3+2] = r.radius;
+		}
+
+		//draw what the renderer has pending first
+		g.flush();
+		shader.start();
+		drawing = true;
+		frame++;
+
+		//the locations are looked up again each frame in case the context was recreated
+		vertexLoc = shader.getAttribLocation("inVertex");
+		positionLoc = shader.getUniformLocation("position");
+		contractionLoc = shader.getUniformLocation("contraction");
+		tiltLoc = shader.getUniformLocation("tilt");
+		tintLoc = shader.getUniformLocation("tint");
+
+		//the renderer's current projection and modelview
+		g.projmodelview.get(matrix);
+		shader.set4x4MatUniform(shader.getUniformLocation("projmodelviewMatrix"), ArenaRenderer.transpose(matrix));
+		shader.set1FloatUniform(shader.getUniformLocation("ascent"), ascent);
+		shader.set3FloatUniform(shader.getUniformLocation("wave"),
+				Word.RIPPLE_LENGTH, Word.RIPPLE_CYCLES*2*PApplet.PI, Word.RIPPLE_AMPLITUDE);
+		shader.setIntUniform(shader.getUniformLocation("rippleCount"), rippleCount);
+		if (rippleCount > 0)
+			shader.set3FloatVecUniform(shader.getUniformLocation("ripples"), this.ripples);
+	}
+
+	/**
+	 * Draw the words of a range of lines, the shadow then the word.
+	 * @param lines lines of words, updated for the frame
+	 * @param first first line to draw
+	 * @param last line after the last one to draw
+	 * @param fill fill color of the words, at full opacity
+	 * @return number of words drawn
+	 */
+	public int draw(Word[][] lines, int first, int last, int fill) {
+		if (!drawing) throw new IllegalStateException("WordShader.draw() called outside of begin() and end().");
+		PGL pgl = g.pgl;
+
+		//upload the rest poses if the lines changed
+		Window window = window(lines, first, last);
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, window.buffer[0]);
+		pgl.glEnableVertexAttribArray(vertexLoc);
+		pgl.glVertexAttribPointer(vertexLoc, 2, PGL.GL_FLOAT, false, 0, 0);
+
+		float alpha = ((fill >>> 24) & 0xff);
+		int drawn = 0;
+		int offset = 0;
+		for(int l = first; l < last; l++) {
+			for(Word w : lines[l]) {
+				int count = w.triangleCount()*3;
+				if (w.opacity != 0) {
+					shader.set2FloatUniform(positionLoc, w.position.x, w.position.y);
+					shader.set3FloatUniform(contractionLoc, w.contractFac > 1 ? 1 : w.contractFac, w.contractFrom.x, w.contractPeriod);
+
+					//draw the word's shadow
+					shader.set2FloatUniform(tiltLoc, Word.SHADOW_COS, Word.SHADOW_SIN);
+					tint(0, 20*w.opacity);
+					pgl.glDrawArrays(PGL.GL_TRIANGLES, offset, count);
+
+					//draw the word at the right opacity
+					shader.set2FloatUniform(tiltLoc, Word.FILL_COS, Word.FILL_SIN);
+					tint(fill, alpha*w.opacity);
+					pgl.glDrawArrays(PGL.GL_TRIANGLES, offset, count);
+					drawn++;
+				}
+				offset += count;
+			}
+		}
+
+		pgl.glDisableVertexAttribArray(vertexLoc);
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, 0);
+		return drawn;
+	}
+
+	/**
+	 * Set the color of the next word to draw.
+	 * @param rgb color, the alpha is ignored
+	 * @param alpha alpha, from 0 to 255
+	 */
+	void tint(int rgb, float alpha) {
+		shader.set4FloatUniform(tintLoc, ((rgb >> 16) & 0xff)/255f, ((rgb >> 8) & 0xff)/255f, (rgb & 0xff)/255f, alpha/255f);
+	}
+
+	/**
+	 * Stop drawing words, and unbind the shader.
+	 */
+	public void end() {
+		shader.stop();
+		drawing = false;
+	}
+
+	/**
+	 * Get the window with the rest poses of a range of lines, uploading them
+	 * to the least recently used one if none has them.
+	 * @param lines lines of words
+	 * @param first first line
+	 * @param last line after the last one
+	 * @return the window
+	 */
+	Window window(Word[][] lines, int first, int last) {
+		Window oldest = windows[0];
+		for(Window w : windows) {
+			if (w.lines == lines && w.first == first && w.last == last) {
+				w.frame = frame;
+				return w;
+			}
+			if (w.frame < oldest.frame) oldest = w;
+		}
+
+		//count the corners of the lines
+		int corners = 0;
+		for(int l = first; l < last; l++)
+			for(Word w : lines[l])
+				corners += w.triangleCount()*3;
+		if (rests.capacity() < corners*2)
+			rests = ByteBuffer.allocateDirect(corners*2*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		//write the rest position of each corner of the triangles
+		rests.clear();
+		for(int l = first; l < last; l++) {
+			for(Word w : lines[l]) {
+				if (w.restX == null) w.tessellate();
+				int base = 0;
+				for(GlyphMesh glyph : w.glyphs) {
+					for(int i = 0; i < glyph.indices.length; i++) {
+						int v = base + glyph.index(i);
+						rests.put(w.restX[v]);
+						rests.put(w.restY[v]);
+					}
+					base += glyph.vertexCount();
+				}
+			}
+		}
+		rests.flip();
+
+		PGL pgl = g.pgl;
+		if (oldest.buffer[0] == 0) pgl.glGenBuffers(1, oldest.buffer, 0);
+		pgl.glBindBuffer(PGL.GL_ARRAY_BUFFER, oldest.buffer[0]);
+		pgl.glBufferData(PGL.GL_ARRAY_BUFFER, corners*2*4, rests, PGL.GL_STATIC_DRAW);
+
+		oldest.lines = lines;
+		oldest.first = first;
+		oldest.last = last;
+		oldest.frame = frame;
+		return oldest;
+	}
+
+	/**
+	 * Rest poses of a range of lines, uploaded to a vertex buffer.
+	 */
+	static class Window {
+		Word[][] lines;				//lines of words, null until uploaded
+		int first, last;			//range of lines uploaded
+		int frame;					//last frame the window was drawn
+		int[] buffer = new int[1];	//vertex buffer, 0 until uploaded
+	}
+}